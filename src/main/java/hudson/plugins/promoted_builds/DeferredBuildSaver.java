@@ -0,0 +1,164 @@
+package hudson.plugins.promoted_builds;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.TermMilestone;
+import hudson.init.Terminator;
+import hudson.model.AbstractBuild;
+import hudson.model.Saveable;
+import hudson.model.listeners.RunListener;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.DoNotUse;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Coalesces the saves of the build records, the {@link PromotedBuildAction} statuses and the {@link PromotionIndex},
+ * which are modified by the promotion state changes.
+ *
+ * <p>
+ * A single promotion modifies its target build several times in a row, and a promotion chain may touch many builds at once.
+ * Instead of rewriting the files on every change, the objects are marked dirty and saved together
+ * after a bounded delay, each of them once. Pending saves are flushed on shutdown, once the termination has started
+ * and before it completes, and the pending save of a build is flushed before the build is deleted.
+ * The saves requested after the shutdown flush are written right away.
+ * A crash loses the saves of the last delay, the promotion index notices it and is rebuilt on the next start.
+ * Setting the delay to {@code 0} restores the immediate saves.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class DeferredBuildSaver {
+
+    /**
+     * Maximum time a modified object waits for its save.
+     */
+    private static final long DELAY_MILLIS = SystemProperties.getLong(DeferredBuildSaver.class.getName() + ".delayMillis", 1000L);
+
+    private static final Set<Saveable> DIRTY = new LinkedHashSet<Saveable>();
+
+    /**
+     * Whether a flush has been scheduled and has not started yet. Guarded by {@link #DIRTY}.
+     */
+    private static boolean scheduled;
+
+    /**
+     * Whether the shutdown flush has run, the saves are not deferred anymore then. Guarded by {@link #DIRTY}.
+     */
+    private static boolean terminated;
+
+    private DeferredBuildSaver() {}
+
+    /**
+     * Schedules a save of the given object.
+     * @param saveable Modified build, {@link PromotedBuildAction} or {@link PromotionIndex}
+     * @throws IOException if the saves are not deferred and the save fails
+     */
+    public static void save(@NonNull Saveable saveable) throws IOException {
+        if (DELAY_MILLIS > 0) {
+            synchronized (DIRTY) {
+                if (!terminated) {
+                    DIRTY.add(saveable);
+                    if (!scheduled) {
+                        scheduled = true;
+                        Timer.get().schedule(DeferredBuildSaver::flush, DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                    return;
+                }
+            }
+        }
+        // not deferred, or nothing would flush it anymore
+        saveable.save();
+    }
+
+    /**
+     * Saves all the pending objects.
+     */
+    public static void flush() {
+        final List<Saveable> saveables;
+        synchronized (DIRTY) {
+            saveables = new ArrayList<Saveable>(DIRTY);
+            DIRTY.clear();
+            scheduled = false;
+        }
+        for (Saveable saveable : saveables) {
+            try {
+                saveable.save();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to save " + saveable, e);
+            }
+        }
+        if (!saveables.isEmpty()) {
+            LOGGER.log(Level.FINE, "Saved {0} promotion records", saveables.size());
+        }
+    }
+
+    /**
+     * Gets the number of the objects waiting for their save.
+     */
+    public static int getPendingCount() {
+        synchronized (DIRTY) {
+            return DIRTY.size();
+        }
+    }
+
+    @Terminator(after = TermMilestone.STARTED, before = TermMilestone.COMPLETED)
+    @Restricted(DoNotUse.class)
+    public static void flushOnShutdown() {
+        synchronized (DIRTY) {
+            terminated = true;
+        }
+        flush();
+    }
+
+    /**
+     * Defers the saves again, when Jenkins is started again in the same JVM, as the tests do.
+     */
+    @Initializer(after = InitMilestone.STARTED)
+    @Restricted(DoNotUse.class)
+    public static void deferOnStartup() {
+        synchronized (DIRTY) {
+            terminated = false;
+        }
+    }
+
+    /**
+     * Flushes the pending save of a build being deleted, which would otherwise recreate its directory later on.
+     * The other listeners of the deletion see the latest promotion state then.
+     */
+    @Extension
+    public static final class RunListenerImpl extends RunListener<AbstractBuild<?,?>> {
+        public RunListenerImpl() {
+            super((Class)AbstractBuild.class);
+        }
+
+        @Override
+        public void onDeleted(AbstractBuild<?,?> build) {
+            final List<Saveable> saveables = new ArrayList<Saveable>();
+            synchronized (DIRTY) {
+                DIRTY.removeIf(s -> (s == build || s instanceof PromotedBuildAction && ((PromotedBuildAction) s).owner == build)
+                        && saveables.add(s));
+            }
+            for (Saveable saveable : saveables) {
+                try {
+                    saveable.save();
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to save " + saveable, e);
+                }
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(DeferredBuildSaver.class.getName());
+}
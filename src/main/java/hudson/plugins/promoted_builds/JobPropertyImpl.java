@@ -4,16 +4,21 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.mapper.CannotResolveClassException;
 import jenkins.security.MasterToSlaveCallable;
-import org.apache.commons.lang.StringUtils;
+import jenkins.util.SystemProperties;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.Ancestor;
@@ -21,6 +26,7 @@ import org.kohsuke.stapler.StaplerRequest2;
 
 import hudson.Extension;
 import hudson.Util;
+import hudson.XmlFile;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Action;
@@ -36,7 +42,9 @@ import hudson.model.Job;
 import hudson.model.JobProperty;
 import hudson.model.JobPropertyDescriptor;
 import hudson.model.listeners.ItemListener;
+import hudson.plugins.promoted_builds.conditions.DownstreamPassConditionRegistry;
 import hudson.util.IOUtils;
+import hudson.util.XStream2;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONArray;
@@ -53,20 +61,32 @@ import net.sf.json.JSONObject;
  */
 public final class JobPropertyImpl extends JobProperty<AbstractProject<?,?>> implements ItemGroup<PromotionProcess> {
     /**
-     * These are loaded from the disk in a different way.
+     * The processes, which are loaded from the disk in a different way, the active ones and their lookup tables.
+     * Replaced as a whole under the lock of this property, so that the readers neither lock nor see them inconsistent.
      */
-    private transient /*final*/ List<PromotionProcess> processes = new ArrayList<PromotionProcess>();
+    private transient volatile Snapshot snapshot = Snapshot.EMPTY;
 
     /**
-     * Subset of {@link #processes} that only contains {@link #activeProcessNames processes that are active}.
-     * This is really just a cache and not an independent variable.
+     * These {@link PromotionProcess}es are active. Guarded by this property.
      */
-    private transient /*final*/ List<PromotionProcess> activeProcesses;
+    private final Set<String> activeProcessNames = new HashSet<String>();
 
     /**
-     * These {@link PromotionProcess}es are active.
+     * Lazily loaded, see {@link #getPromotionIndex()}.
      */
-    private final Set<String> activeProcessNames = new HashSet<String>();
+    private transient volatile PromotionIndex promotionIndex;
+
+    /**
+     * Process directories listed by {@link #setOwner(AbstractProject)}, which are not loaded yet.
+     * {@code null} once {@link #snapshot} reflects the disk. Written under the lock of this property.
+     */
+    private transient volatile PendingLoad pending;
+
+    /**
+     * Thread loading the {@link #pending} directories, if any. Guarded by this property.
+     */
+    private transient Thread loadingThread;
+
     /**
      * Programmatic construction.
      * @param owner owner job
@@ -82,7 +102,9 @@ public final class JobPropertyImpl extends JobProperty<AbstractProject<?,?>> imp
      */
     public JobPropertyImpl(JobPropertyImpl other, AbstractProject<?,?> owner) throws Descriptor.FormException, IOException {
         this.owner = owner;
-        this.activeProcessNames.addAll(other.activeProcessNames);
+        synchronized (other) {
+            this.activeProcessNames.addAll(other.activeProcessNames);
+        }
         loadAllProcesses(other.getRootDir()); 
     }
 
@@ -124,7 +146,10 @@ public final class JobPropertyImpl extends JobProperty<AbstractProject<?,?>> imp
             } catch (Failure f) {
                 throw new Descriptor.FormException(f.getMessage(), name);
             }
-            activeProcessNames.add(name);
+            synchronized (this) {
+                activeProcessNames.add(name);
+                publish(snapshot.processes);
+            }
             PromotionProcess p;
             try {
                 p = (PromotionProcess) Items.load(this, getRootDirFor(name));
@@ -151,15 +176,8 @@ public final class JobPropertyImpl extends JobProperty<AbstractProject<?,?>> imp
         loadProcesses(subdirs);
     }
     private void loadProcesses(File[] subdirs) throws IOException {
-        if(subdirs!=null) {
-            for (File subdir : subdirs) {
-                try {
-                    PromotionProcess p = (PromotionProcess) Items.load(this, subdir);
-                    safeAddToProcessesList(p);
-                } catch (IOException e) {
-                    LOGGER.log(Level.WARNING, "Failed to load promotion process in "+subdir,e);
-                }
-            }
+        for (PromotionProcess p : PromotionProcessLoader.load(this, subdirs, null)) {
+            safeAddToProcessesList(p);
         }
 
         buildActiveProcess();
@@ -171,38 +189,42 @@ public final class JobPropertyImpl extends JobProperty<AbstractProject<?,?>> imp
      * @return Created process
      * @throws IOException Execution error
      */
-    public synchronized PromotionProcess addProcess(String name) throws IOException {
-        PromotionProcess p = new PromotionProcess(this, name);
-        activeProcessNames.add(name);
-        safeAddToProcessesList(p);
-        buildActiveProcess();
-        p.onCreatedFromScratch();
+    public PromotionProcess addProcess(String name) throws IOException {
+        // not under the lock, the loader threads may need it
+        ensureLoaded();
+        PromotionProcess p;
+        List<PromotionProcess> misnamed;
+        synchronized (this) {
+            p = new PromotionProcess(this, name);
+            activeProcessNames.add(name);
+            misnamed = publish(withProcess(snapshot.processes, p));
+            if (pending != null) {
+                // listed again meanwhile, the next load keeps this instance
+                pending.added.add(p);
+            }
+            p.onCreatedFromScratch();
+        }
+        renameToActiveNames(misnamed);
         return p;
     }
 
     private synchronized void safeAddToProcessesList(PromotionProcess p) {
-        int index = 0;
-        boolean found = false;
-        for (ListIterator<PromotionProcess> i = processes.listIterator(); i.hasNext();) {
-            PromotionProcess process = i.next();
-            if (p.getName().equalsIgnoreCase(process.getName())) {
-                found = true;
-                try {
-                    i.set(p);
-                    break;
-                } catch (UnsupportedOperationException e) {
-                    // shouldn't end up here but Java Runtime Spec allows for this case
-                    // we don't care about ConcurrentModificationException because we are done
-                    // with the iterator once we find the first element.
-                    processes.set(index, p);
-                    break;
-                }
+        publish(withProcess(snapshot.processes, p));
+    }
+
+    /**
+     * Replaces the first process of the same name ignoring the case, or appends the given process.
+     */
+    private static List<PromotionProcess> withProcess(List<PromotionProcess> processes, PromotionProcess p) {
+        List<PromotionProcess> list = new ArrayList<PromotionProcess>(processes);
+        for (int i = 0; i < list.size(); i++) {
+            if (fold(list.get(i).getName()).equals(fold(p.getName()))) {
+                list.set(i, p);
+                return list;
             }
-            index++;
-        }
-        if (!found) {
-            processes.add(p);
         }
+        list.add(p);
+        return list;
     }
 
     @Override
@@ -212,56 +234,328 @@ public final class JobPropertyImpl extends JobProperty<AbstractProject<?,?>> imp
         // readResolve is too early because we don't have our parent set yet,
         // so use this as the initialization opportunity.
         // CopyListener is also using setOwner to re-init after copying config from another job.
+        // Only the directories are listed here, the definitions are loaded on the first access.
+        File rootDir = getRootDir();
+        rootDir.mkdirs();
+        File[] subdirs = rootDir.listFiles(File::isDirectory);
         synchronized (this) {
-            processes = new ArrayList<PromotionProcess>(ItemGroupMixIn.<String, PromotionProcess>loadChildren(
-                    this, getRootDir(), ItemGroupMixIn.KEYED_BY_NAME).values());
+            PendingLoad previous = pending;
+            Map<String,PromotionProcess> existing = new HashMap<String,PromotionProcess>();
+            if (previous != null) {
+                // not loaded since the last listing, the processes loaded before that are still the ones to reuse
+                existing.putAll(previous.existing);
+            } else {
+                for (PromotionProcess p : snapshot.processes) {
+                    existing.putIfAbsent(p.getName(), p);
+                }
+            }
+            // a load in progress is discarded once it completes
+            pending = new PendingLoad(subdirs != null ? subdirs : new File[0], existing);
+            if (previous != null) {
+                for (PromotionProcess p : previous.added) {
+                    if (p.getRootDir().isDirectory()) {
+                        pending.added.add(p);
+                    }
+                }
+            }
+        }
+        if (!LAZY_LOAD || hasEagerlyLoadedCondition(subdirs)) {
+            // e.g. the downstream registry has to know the watched jobs before any of them completes
+            ensureLoaded();
+        } else {
+            DownstreamPassConditionRegistry.get().unregister(owner.getFullName());
+        }
+    }
+
+    /**
+     * Process directories to be loaded by {@link #ensureLoaded()}.
+     */
+    private static final class PendingLoad {
+        private final File[] subdirs;
+        /**
+         * Processes loaded before, by name. They are reloaded in place to retain their identity.
+         */
+        private final Map<String,PromotionProcess> existing;
+        /**
+         * Processes added by {@link #addProcess(String)} since the listing, which replace the loaded ones of the same name.
+         * Guarded by the property.
+         */
+        private final List<PromotionProcess> added = new ArrayList<PromotionProcess>();
+
+        PendingLoad(File[] subdirs, Map<String,PromotionProcess> existing) {
+            this.subdirs = subdirs;
+            this.existing = existing;
+        }
+    }
+
+    /**
+     * Loads the processes listed by the last {@link #setOwner(AbstractProject)}, unless they are loaded already.
+     * The directories are loaded by a single thread at a time, the other callers wait for it.
+     * On return, {@link #pending} has been {@code null}, and the {@link #snapshot} reflects the disk.
+     * @throws IllegalStateException if called back by a load in progress, which would wait for itself.
+     *         The readers use {@link #lookup()}, which sees the previous snapshot then
+     */
+    private void ensureLoaded() {
+        if (pending == null) {
+            return;
+        }
+        if (PromotionProcessLoader.isLoaderThread()) {
+            throw new IllegalStateException("The promotion processes of " + getFullName() + " cannot be loaded by a loader thread");
+        }
+        boolean loaded = false;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                PendingLoad p;
+                synchronized (this) {
+                    p = pending;
+                    if (p == null) {
+                        break;
+                    }
+                    if (loadingThread == Thread.currentThread()) {
+                        throw new IllegalStateException("The promotion processes of " + getFullName() + " are being loaded by this thread");
+                    }
+                    if (loadingThread != null) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            // the processes have to be loaded completely, restore the flag afterwards
+                            interrupted = true;
+                        }
+                        continue;
+                    }
+                    loadingThread = Thread.currentThread();
+                }
+                List<PromotionProcess> misnamed = Collections.emptyList();
+                try {
+                    // loaded without holding the lock, the readers keep seeing the previous snapshot meanwhile
+                    List<PromotionProcess> list = PromotionProcessLoader.load(this, p.subdirs, p.existing);
+                    synchronized (this) {
+                        if (pending == p) {
+                            pending = null;
+                            for (PromotionProcess added : p.added) {
+                                list = withProcess(list, added);
+                            }
+                            misnamed = publish(list);
+                            loaded = true;
+                        }
+                    }
+                } finally {
+                    synchronized (this) {
+                        loadingThread = null;
+                        notifyAll();
+                    }
+                }
+                try {
+                    // renaming a process lists the directories again, which are loaded by the next iteration
+                    renameToActiveNames(misnamed);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to rename the promotion processes of " + getFullName(), e);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (loaded && owner != null) {
+            DownstreamPassConditionRegistry.get().register(owner, this);
+        }
+    }
+
+    /**
+     * Checks if the processes have been loaded from the disk since the last {@link #setOwner(AbstractProject)}.
+     * @return {@code false} if the processes are loaded on the next access.
+     *         None of them has a condition, which is {@link PromotionConditionDescriptor#isLoadedEagerly() loaded eagerly}, then
+     */
+    @Restricted(NoExternalUse.class)
+    public boolean isLoaded() {
+        return pending == null;
+    }
+
+    /**
+     * Checks the process definitions for the conditions, which are {@link PromotionConditionDescriptor#isLoadedEagerly() loaded eagerly},
+     * by the element names of their conditions, without unmarshalling them.
+     */
+    private static boolean hasEagerlyLoadedCondition(@CheckForNull File[] subdirs) {
+        if (subdirs == null) {
+            return false;
+        }
+        for (File subdir : subdirs) {
+            XmlFile config = Items.getConfigFile(subdir);
+            if (!config.exists()) {
+                continue;
+            }
             try {
-                buildActiveProcess();
-            } catch (IOException e) {
-                throw new Error(e);
+                for (String name : readConditionNames(config.getFile())) {
+                    Class<?> type;
+                    try {
+                        type = Items.XSTREAM2.getMapper().realClass(name);
+                    } catch (CannotResolveClassException e) {
+                        // the loader reports it
+                        continue;
+                    }
+                    Descriptor<?> d = PromotionCondition.class.isAssignableFrom(type)
+                            ? Jenkins.get().getDescriptor(type.asSubclass(PromotionCondition.class)) : null;
+                    if (d instanceof PromotionConditionDescriptor && ((PromotionConditionDescriptor) d).isLoadedEagerly()) {
+                        return true;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // the loader reports it
+                return true;
             }
         }
+        return false;
     }
 
     /**
-     * Builds {@link #activeProcesses}.
+     * Reads the element names of the conditions of a process definition, which are their class names or aliases.
+     */
+    private static Set<String> readConditionNames(File config) throws IOException {
+        Set<String> names = new HashSet<String>();
+        try (InputStream in = Files.newInputStream(config.toPath())) {
+            HierarchicalStreamReader r = XStream2.getDefaultDriver().createReader(in);
+            try {
+                while (r.hasMoreChildren()) {
+                    r.moveDown();
+                    if ("conditions".equals(r.getNodeName())) {
+                        while (r.hasMoreChildren()) {
+                            r.moveDown();
+                            names.add(r.getNodeName());
+                            r.moveUp();
+                        }
+                        break;
+                    }
+                    r.moveUp();
+                }
+            } finally {
+                r.close();
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Rebuilds the active processes.
      * @throws IOException Execution error
      */
     private void buildActiveProcess() throws IOException {
-        activeProcesses = new ArrayList<PromotionProcess>();
-        for (PromotionProcess p : processes) {
-            boolean active = isActiveProcessNameIgnoreCase(p.getName());
-            p.makeDisabled(!active);
-            if(active)
-                activeProcesses.add(p);
-
-            // ensure that the name casing matches what's given in the activeProcessName
-            // this is because in case insensitive file system, we may end up resolving
-            // to a directory name that differs only in their case.
-            String processName = p.getName();
-            String activeProcessName = getActiveProcessName(processName);
-            if (!activeProcessName.equals(processName)){
+        List<PromotionProcess> misnamed;
+        synchronized (this) {
+            // the active names may have changed
+            misnamed = publish(snapshot.processes);
+        }
+        renameToActiveNames(misnamed);
+    }
+
+    /**
+     * Publishes a new {@link #snapshot} of the given processes. The caller holds the lock of this property.
+     * @return Active processes, whose names differ from the {@link #activeProcessNames} in their case
+     */
+    private List<PromotionProcess> publish(List<PromotionProcess> processes) {
+        assert Thread.holdsLock(this);
+        Snapshot s = new Snapshot(processes, activeProcessNames);
+        List<PromotionProcess> misnamed = new ArrayList<PromotionProcess>();
+        for (PromotionProcess p : s.processes) {
+            boolean isActive = s.activeNames.containsKey(fold(p.getName()));
+            p.makeDisabled(!isActive);
+            if (isActive && !s.activeNames.get(fold(p.getName())).equals(p.getName())) {
+                misnamed.add(p);
+            }
+        }
+        snapshot = s;
+        return misnamed;
+    }
+
+    /**
+     * Ensures that the name casing matches what's given in the activeProcessName.
+     * This is because in case insensitive file system, we may end up resolving
+     * to a directory name that differs only in their case.
+     * Renamed without holding the lock, as the renames list the directories again.
+     */
+    private void renameToActiveNames(List<PromotionProcess> misnamed) throws IOException {
+        for (PromotionProcess p : misnamed) {
+            String activeProcessName = getActiveProcessName(p.getName());
+            if (!activeProcessName.equals(p.getName())) {
                 p.renameTo(activeProcessName);
             }
         }
     }
 
     /**
-     * Return the string in the case as specified in {@link #activeProcessNames}.
+     * Immutable snapshot of the processes, see {@link #snapshot}.
+     * If several processes match a name, the first one in {@link #processes} wins, same as in a linear scan.
      */
-    private synchronized String getActiveProcessName(String s) {
-        for (String n : activeProcessNames) {
-            if (n.equalsIgnoreCase(s))
-                return n;
+    private static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(Collections.<PromotionProcess>emptyList(), Collections.<String>emptySet());
+
+        private final List<PromotionProcess> processes;
+        /**
+         * Subset of {@link #processes} that only contains {@link #activeProcessNames processes that are active}.
+         */
+        private final List<PromotionProcess> activeProcesses;
+        private final Map<String,PromotionProcess> byName = new HashMap<String,PromotionProcess>();
+        private final Map<String,PromotionProcess> activeByName = new HashMap<String,PromotionProcess>();
+        /**
+         * Case-folded active process name to the name as specified in {@link #activeProcessNames}.
+         */
+        private final Map<String,String> activeNames = new HashMap<String,String>();
+
+        Snapshot(List<PromotionProcess> processes, Set<String> activeProcessNames) {
+            for (String n : activeProcessNames) {
+                activeNames.putIfAbsent(fold(n), n);
+            }
+            List<PromotionProcess> active = new ArrayList<PromotionProcess>();
+            for (PromotionProcess p : processes) {
+                byName.putIfAbsent(p.getName(), p);
+                if (activeNames.containsKey(fold(p.getName()))) {
+                    active.add(p);
+                    activeByName.putIfAbsent(p.getName(), p);
+                }
+            }
+            this.processes = Collections.unmodifiableList(new ArrayList<PromotionProcess>(processes));
+            this.activeProcesses = Collections.unmodifiableList(active);
         }
-        return s;   // huh?
     }
 
-    private synchronized boolean isActiveProcessNameIgnoreCase(String s) {
-        for (String n : activeProcessNames)
-            if (n.equalsIgnoreCase(s))
-                return true;
-        return false;
+    /**
+     * Folds the case of a process name, so that two names fold to the same string
+     * exactly when {@link String#equalsIgnoreCase(String)} considers them equal.
+     */
+    private static String fold(String name) {
+        StringBuilder b = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            b.append(Character.toLowerCase(Character.toUpperCase(name.charAt(i))));
+        }
+        return b.toString();
+    }
+
+    /**
+     * Gets the {@link #snapshot}, loading the processes first.
+     * The processes being loaded and the loader threads, which call back to this property, see the previous snapshot.
+     */
+    private Snapshot lookup() {
+        if (pending != null && !isCalledBackByLoad()) {
+            ensureLoaded();
+        }
+        return snapshot;
+    }
+
+    private synchronized boolean isCalledBackByLoad() {
+        return loadingThread == Thread.currentThread() || PromotionProcessLoader.isLoaderThread();
+    }
+
+    /**
+     * Return the string in the case as specified in {@link #activeProcessNames}.
+     */
+    private String getActiveProcessName(String s) {
+        String n = lookup().activeNames.get(fold(s));
+        return n != null ? n : s;   // huh?
+    }
+
+    private boolean isActiveProcessNameIgnoreCase(String s) {
+        return lookup().activeNames.containsKey(fold(s));
     }
 
     /**
@@ -272,15 +566,16 @@ public final class JobPropertyImpl extends JobProperty<AbstractProject<?,?>> imp
      * @return
      *      non-null and non-empty. Read-only.
      */
-    public synchronized List<PromotionProcess> getItems() {
-        return processes;
+    public List<PromotionProcess> getItems() {
+        return lookup().processes;
     }
 
     /**
      * Gets the list of active promotion processes.
+     * @return Read-only snapshot, which is not affected by later changes
      */
     public List<PromotionProcess> getActiveItems() {
-        return activeProcesses;
+        return lookup().activeProcesses;
     }
 
     /** @see ItemGroupMixIn#createProjectFromXML */
@@ -328,15 +623,38 @@ public final class JobPropertyImpl extends JobProperty<AbstractProject<?,?>> imp
      * @return {@link PromotionProcess} if it can be found.
      */
     @CheckForNull
-    public synchronized PromotionProcess getItem(String name) {
-        if (processes == null) {
-            return null;
-        }
-        for (PromotionProcess c : processes) {
-            if( StringUtils.equals( c.getName(),name))
-                return c;
+    public PromotionProcess getItem(String name) {
+        return name != null ? lookup().byName.get(name) : null;
+    }
+
+    /**
+     * Finds an active {@link PromotionProcess} by name.
+     * @param name Name of the process
+     * @return Process if it is one of {@link #getActiveItems()}
+     */
+    @CheckForNull
+    /*package*/ PromotionProcess getActiveItem(String name) {
+        return name != null ? lookup().activeByName.get(name) : null;
+    }
+
+    /**
+     * Gets the index of the promotions performed for the builds of the owner job.
+     * @return Index, which is loaded from the disk or rebuilt on the first call
+     */
+    @Restricted(NoExternalUse.class)
+    public PromotionIndex getPromotionIndex() {
+        PromotionIndex index = promotionIndex;
+        if (index == null) {
+            // a rebuild loads all the builds, the process lookups must not wait for it
+            PromotionIndex loaded = PromotionIndex.load(this);
+            synchronized (this) {
+                index = promotionIndex;
+                if (index == null) {
+                    promotionIndex = index = loaded;
+                }
+            }
         }
-        return null;
+        return index;
     }
 
     public File getRootDir() {
@@ -348,11 +666,13 @@ public final class JobPropertyImpl extends JobProperty<AbstractProject<?,?>> imp
     }
 
     public void onDeleted(PromotionProcess process) {
+        getPromotionIndex().onProcessDeleted(process.getName());
         setOwner(owner);
         ItemListener.fireOnDeleted(process);
     }
 
     public void onRenamed(PromotionProcess item, String oldName, String newName) throws IOException {
+        getPromotionIndex().onProcessRenamed(oldName, newName);
         setOwner(owner);
     }
 
@@ -427,5 +747,10 @@ public final class JobPropertyImpl extends JobProperty<AbstractProject<?,?>> imp
         }
     }
 
+    /**
+     * Set to {@code false} to load the promotion processes as soon as the job is loaded.
+     */
+    private static final boolean LAZY_LOAD = SystemProperties.getBoolean(JobPropertyImpl.class.getName() + ".lazyLoad", true);
+
     private static final Logger LOGGER = Logger.getLogger(JobPropertyImpl.class.getName());
 }
\ No newline at end of file
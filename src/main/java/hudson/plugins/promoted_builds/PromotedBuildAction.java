@@ -1,11 +1,15 @@
 package hudson.plugins.promoted_builds;
 
+import hudson.BulkChange;
 import hudson.RestrictedSince;
+import hudson.XmlFile;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Action;
 import hudson.model.BuildBadgeAction;
 import hudson.model.Cause.UserCause;
+import hudson.model.Run;
+import hudson.model.Saveable;
 import hudson.plugins.promoted_builds.conditions.ManualCondition;
 import hudson.util.CopyOnWriteList;
 import org.kohsuke.stapler.HttpResponse;
@@ -14,10 +18,13 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.StaplerResponse2;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
@@ -31,24 +38,96 @@ import org.kohsuke.stapler.interceptor.RequirePOST;
  * @author Kohsuke Kawaguchi
  */
 @ExportedBean
-public final class PromotedBuildAction implements BuildBadgeAction {
+public final class PromotedBuildAction implements BuildBadgeAction, Saveable {
     
     //TODO: bug: serialization of builds into the badge
     public final AbstractBuild<?,?> owner;
 
     /**
-     * Per-process status.
+     * Per-process status, as it used to be stored in {@code build.xml}.
+     * Only read from the old build records, the statuses are now stored in {@link #FILE_NAME}.
+     * Read in place, and kept until the statuses change and {@link #FILE_NAME} is written.
      */
-    private final CopyOnWriteList<Status> statuses = new CopyOnWriteList<Status>();
+    private CopyOnWriteList<Status> statuses;
+
+    /**
+     * Per-process status, lazily loaded from {@link #FILE_NAME}.
+     */
+    private transient volatile CopyOnWriteList<Status> loaded;
 
     public PromotedBuildAction(AbstractBuild<?,?> owner) {
         assert owner!=null;
         this.owner = owner;
+        this.loaded = new CopyOnWriteList<Status>();
     }
 
     public PromotedBuildAction(AbstractBuild<?,?> owner, Status firstStatus) {
         this(owner);
-        statuses.add(firstStatus);
+        loaded.add(firstStatus);
+        firstStatus.parent = this;
+    }
+
+    /**
+     * Gets the statuses, loading them on the first access.
+     */
+    private CopyOnWriteList<Status> getStatuses() {
+        CopyOnWriteList<Status> s = loaded;
+        if (s == null) {
+            synchronized (this) {
+                s = loaded;
+                if (s == null) {
+                    loaded = s = loadStatuses();
+                }
+            }
+        }
+        return s;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CopyOnWriteList<Status> loadStatuses() {
+        CopyOnWriteList<Status> s = null;
+        XmlFile file = getStatusesFile();
+        if (file.exists()) {
+            try {
+                s = (CopyOnWriteList<Status>) file.read();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to load the promotion statuses of " + owner, e);
+            }
+        }
+        if (s == null && statuses != null) {
+            // not migrated yet, nothing is written on the read path
+            s = statuses;
+        }
+        return resurrect(s != null ? s : new CopyOnWriteList<Status>());
+    }
+
+    private CopyOnWriteList<Status> resurrect(CopyOnWriteList<Status> s) {
+        // resurrect the parent pointer when read from disk
+        for (Status status : s)
+            status.parent = this;
+        return s;
+    }
+
+    private XmlFile getStatusesFile() {
+        return new XmlFile(Run.XSTREAM2, new File(owner.getRootDir(), FILE_NAME));
+    }
+
+    /**
+     * Writes the statuses to {@link #FILE_NAME}. The build record itself is only rewritten
+     * to drop the migrated {@link #statuses}.
+     * Use {@link DeferredBuildSaver#save(Saveable)} to coalesce the writes.
+     */
+    @Override
+    public synchronized void save() throws IOException {
+        if (BulkChange.contains(this)) {
+            return;
+        }
+        getStatusesFile().write(getStatuses());
+        if (statuses != null) {
+            // the statuses are safe in their own file now
+            statuses = null;
+            DeferredBuildSaver.save(owner);
+        }
     }
 
     /**
@@ -69,7 +148,7 @@ public final class PromotedBuildAction implements BuildBadgeAction {
      * Checks if the given criterion is already promoted.
      */
     public boolean contains(PromotionProcess process) {
-        for (Status s : statuses)
+        for (Status s : getStatuses())
             if(s.isFor(process))
                 return true;
         return false;
@@ -79,7 +158,7 @@ public final class PromotedBuildAction implements BuildBadgeAction {
      * Checks if the given criterion is already promoted.
      */
     public boolean contains(String name) {
-        for (Status s : statuses)
+        for (Status s : getStatuses())
             if(s.name.equals(name))
                 return true;
         return false;
@@ -89,13 +168,13 @@ public final class PromotedBuildAction implements BuildBadgeAction {
      * Called when the build is qualified.
      */
     public synchronized boolean add(Status status) throws IOException {
-        for (Status s : statuses)
+        for (Status s : getStatuses())
             if(s.name.equals(status.name))
                 return false; // already qualified. noop.
 
-        this.statuses.add(status);
+        getStatuses().add(status);
         status.parent = this;
-        owner.save();
+        DeferredBuildSaver.save(this);
         return true;
     }
 
@@ -104,7 +183,7 @@ public final class PromotedBuildAction implements BuildBadgeAction {
      */
     @Exported
     public List<Status> getPromotions() {
-        return statuses.getView();
+        return getStatuses().getView();
     }
 
     /**
@@ -129,14 +208,14 @@ public final class PromotedBuildAction implements BuildBadgeAction {
      */
     @CheckForNull
     public Status getPromotion(String name) {
-        for (Status s : statuses)
+        for (Status s : getStatuses())
             if(s.name.equals(name))
                 return s;
         return null;
     }
 
     public boolean hasPromotion() {
-        return !statuses.isEmpty();
+        return !getStatuses().isEmpty();
     }
 
     /**
@@ -185,12 +264,7 @@ public final class PromotedBuildAction implements BuildBadgeAction {
         if (pp==null)
             return null;
 
-        for (PromotionProcess p : pp.getItems()) {
-            if(p.getName().equals(name))
-                return p;
-        }
-
-        return null;
+        return pp.getItem(name);
     }
 
     public String getIconFileName() {
@@ -206,9 +280,8 @@ public final class PromotedBuildAction implements BuildBadgeAction {
     }
 
     private Object readResolve() {
-        // resurrect the parent pointer when read from disk
-        for (Status s : statuses)
-            s.parent = this;
+        // the statuses are loaded on the first access
+        loaded = null;
         return this;
     }
 
@@ -242,4 +315,11 @@ public final class PromotedBuildAction implements BuildBadgeAction {
 
         return HttpResponses.redirectToDot();
     }
+
+    /**
+     * Name of the file in the build directory, which stores the statuses.
+     */
+    public static final String FILE_NAME = "promotions.xml";
+
+    private static final Logger LOGGER = Logger.getLogger(PromotedBuildAction.class.getName());
 }
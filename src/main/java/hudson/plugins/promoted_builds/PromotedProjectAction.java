@@ -1,6 +1,7 @@
 package hudson.plugins.promoted_builds;
 
 import hudson.model.*;
+import hudson.util.Iterators;
 
 import java.io.IOException;
 
@@ -52,17 +53,11 @@ public class PromotedProjectAction implements ProminentProjectAction, PermalinkP
      */
     @CheckForNull
     public PromotionProcess getProcess(String name) {
-    	for (PromotionProcess pp : getProcesses() ){
-    		if(pp.getName().equals(name))
-    			return pp;
-    	}
-        return null;
+        return property.getActiveItem(name);
     }
 
     public AbstractBuild<?,?> getLatest(PromotionProcess p) {
-    	List<Promotion> list = getPromotions( p );
-    	Collections.sort(list);
-        return list.size() > 0 ? list.get(list.size() - 1) : null;
+        return p == null ? null : findPromotion(p, Iterators.reverse(getPromotionNumbers(p)));
     }
 
     @Restricted(NoExternalUse.class)
@@ -80,31 +75,47 @@ public class PromotedProjectAction implements ProminentProjectAction, PermalinkP
 
     @Restricted(NoExternalUse.class)
     public Status getStatus(PromotionProcess process) {
-        List<Promotion> list = getPromotions( process );
-        Promotion latest = list.size() > 0 ? list.get(list.size() - 1) : null;
+        Promotion latest = process == null ? null : findPromotion(process, getPromotionNumbers(process));
         Status status = latest != null ? latest.getStatus() : null;
         return status;
     }
 
+    /**
+     * Gets the latest promotion of the given process, without loading any build records.
+     * @param process Promotion process
+     * @return Summary or {@code null} if the process has not promoted any build yet
+     */
+    @CheckForNull
+    @Restricted(NoExternalUse.class)
+    public PromotionSummary getSummary(PromotionProcess process) {
+        return process == null ? null : property.getPromotionIndex().getSummary(owner, process.getName());
+    }
+
     /**
      * Finds the last promoted build under the given criteria.
      */
     public AbstractBuild<?,?> getLatest(String name) {
-    	List<Promotion> list = getPromotions( getProcess(name) );
-        return list.size() > 0 ? list.get(list.size() - 1) : null;
+        PromotionProcess p = getProcess(name);
+        return p == null ? null : findPromotion(p, getPromotionNumbers(p));
     }
 
 
+    /**
+     * Gets the promotions of the given process, newest first.
+     * The list is served from the {@link PromotionIndex}, so that build records of the owner job are not loaded.
+     * @param promotionProcess Promotion process
+     * @return List of promotions. May be empty
+     */
     public List<Promotion> getPromotions(PromotionProcess promotionProcess){
-    	List<Promotion> list = new ArrayList<Promotion>(); 
-        for( AbstractBuild<?,?> build : owner.getBuilds() ) {
-            PromotedBuildAction a = build.getAction(PromotedBuildAction.class);
-            if(a!=null && a.contains(promotionProcess))
-            	list.addAll( a.getPromotionBuilds(promotionProcess) );
+    	List<Promotion> list = new ArrayList<Promotion>();
+        if (promotionProcess == null) {
+            return list;
+        }
+        for (Integer n : Iterators.reverse(getPromotionNumbers(promotionProcess))) {
+            Promotion p = promotionProcess.getBuildByNumber(n);
+            if (p != null)
+                list.add(p);
         }
-
-        Collections.sort(list, Collections.<Promotion>reverseOrder());
-
         return list;
     }
     
@@ -115,12 +126,42 @@ public class PromotedProjectAction implements ProminentProjectAction, PermalinkP
      * @return List of latest promotions
      */
     public List<Promotion> getPromotionsSummary(PromotionProcess promotionProcess){
-    	List<Promotion> promotionList = this.getPromotions(promotionProcess);
-    	if(promotionList.size() > SUMMARY_SIZE ){
-	    return promotionList.subList(promotionList.size() - SUMMARY_SIZE, promotionList.size());
-    	}else{
-    		return promotionList;
-    	}
+    	List<Promotion> promotionList = new ArrayList<Promotion>();
+        if (promotionProcess == null) {
+            return promotionList;
+        }
+        // the tail of the newest-first list, without resolving the promotions that are not displayed
+        for (Integer n : getPromotionNumbers(promotionProcess)) {
+            Promotion p = promotionProcess.getBuildByNumber(n);
+            if (p != null) {
+                promotionList.add(p);
+                if (promotionList.size() == SUMMARY_SIZE) {
+                    break;
+                }
+            }
+        }
+        Collections.reverse(promotionList);
+        return promotionList;
+    }
+
+    /**
+     * Gets the numbers of the promotions attempted by the given process, in the ascending order.
+     */
+    private List<Integer> getPromotionNumbers(PromotionProcess promotionProcess) {
+        return property.getPromotionIndex().getPromotionNumbers(promotionProcess.getName());
+    }
+
+    /**
+     * Returns the first promotion in the given sequence of numbers, which still has a build record.
+     */
+    @CheckForNull
+    private static Promotion findPromotion(PromotionProcess promotionProcess, Iterable<Integer> numbers) {
+        for (Integer n : numbers) {
+            Promotion p = promotionProcess.getBuildByNumber(n);
+            if (p != null)
+                return p;
+        }
+        return null;
     }
     
     
@@ -1,6 +1,7 @@
 package hudson.plugins.promoted_builds;
 
 import hudson.EnvVars;
+import hudson.Extension;
 import hudson.FilePath;
 import hudson.console.ConsoleLogFilter;
 import hudson.console.HyperlinkNote;
@@ -22,6 +23,7 @@ import hudson.model.TaskListener;
 import hudson.model.TopLevelItem;
 import hudson.model.Run;
 import hudson.model.User;
+import hudson.model.listeners.RunListener;
 import hudson.plugins.promoted_builds.conditions.ManualCondition;
 import hudson.security.Permission;
 import hudson.security.PermissionGroup;
@@ -426,25 +428,22 @@ public class Promotion extends AbstractBuild<PromotionProcess,Promotion> {
                 return;
             }
 
+            getStatus().onPromotionCompleted(Promotion.this);
             if(getResult()== Result.SUCCESS)
                 getStatus().onSuccessfulPromotion(Promotion.this);
-            // persist the updated build record
-            getTargetBuildOrFail().save();
+            // persist the updated promotion statuses
+            PromotedBuildAction pba = getTargetBuildOrFail().getAction(PromotedBuildAction.class);
+            DeferredBuildSaver.save(pba);
 
             if (getResult() == Result.SUCCESS) {
                 // we should evaluate any other pending promotions in case
                 // they had a condition on this promotion
-                PromotedBuildAction pba = getTargetBuildOrFail().getAction(PromotedBuildAction.class);
                 for (PromotionProcess pp : pba.getPendingPromotions()) {
                     pp.considerPromotion2(getTargetBuildOrFail());
                 }
 
                 // tickle PromotionTriggers
-                for (AbstractProject<?,?> p : Jenkins.get().getAllItems(AbstractProject.class)) {
-                    PromotionTrigger pt = p.getTrigger(PromotionTrigger.class);
-                    if (pt!=null)
-                        pt.consider(Promotion.this);
-                }
+                PromotionTrigger.considerAll(Promotion.this);
             }
         }
 
@@ -602,4 +601,28 @@ public class Promotion extends AbstractBuild<PromotionProcess,Promotion> {
             return new PromotionParametersAction(params);
         }
     }
+
+    /**
+     * Forgets the deleted promotion as the last attempt of its {@link Status}.
+     */
+    @Extension
+    public static final class RunListenerImpl extends RunListener<Promotion> {
+        public RunListenerImpl() {
+            super(Promotion.class);
+        }
+
+        @Override
+        public void onDeleted(Promotion p) {
+            AbstractBuild<?,?> target = p.getTargetBuild();
+            PromotedBuildAction a = target != null ? target.getAction(PromotedBuildAction.class) : null;
+            Status s = a != null ? a.getPromotion(p.getParent().getName()) : null;
+            if (s != null && s.onPromotionDeleted(p)) {
+                try {
+                    DeferredBuildSaver.save(a);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to save the promotion statuses of " + target, e);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,136 @@
+package hudson.plugins.promoted_builds;
+
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of the build numbers of the attempted {@link Promotion}s of a {@link Status},
+ * stored as a primitive array.
+ *
+ * <p>
+ * Numbers are only ever appended. Readers do not lock: the number is written before the size is published,
+ * and a grown array contains all the numbers of the previous one.
+ * </p>
+ *
+ * <p>
+ * Persisted with one {@code <int>} element per attempt, same as the former {@code List<Integer>},
+ * so that the older versions of the plugin still read the attempts.
+ * A single comma-separated value, e.g. {@code <promotionAttempts>1,3,4</promotionAttempts>}, is read as well.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class PromotionAttempts {
+
+    private static final int[] EMPTY = new int[0];
+
+    private volatile int[] values = EMPTY;
+    private volatile int size;
+
+    PromotionAttempts() {}
+
+    private PromotionAttempts(int[] values) {
+        this.values = values;
+        this.size = values.length;
+    }
+
+    /**
+     * Appends a build number.
+     * @param number Build number of the {@link Promotion}
+     */
+    synchronized void add(int number) {
+        int[] v = values;
+        if (size == v.length) {
+            v = Arrays.copyOf(v, Math.max(4, v.length * 2));
+            values = v;
+        }
+        v[size] = number;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the build number at the given position.
+     * @param index Position in the ascending order
+     */
+    public int get(int index) {
+        int s = size;
+        if (index < 0 || index >= s) {
+            throw new IndexOutOfBoundsException(index + " of " + s);
+        }
+        return values[index];
+    }
+
+    /**
+     * Copies the build numbers.
+     * @return Build numbers in the ascending order
+     */
+    public int[] toArray() {
+        int s = size;
+        return Arrays.copyOf(values, s);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    /**
+     * Picked up by {@link hudson.util.XStream2} for the fields of this type.
+     */
+    public static final class ConverterImpl implements Converter {
+        @Override
+        public boolean canConvert(Class type) {
+            return type == PromotionAttempts.class;
+        }
+
+        @Override
+        public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+            for (int number : ((PromotionAttempts) source).toArray()) {
+                writer.startNode("int");
+                writer.setValue(Integer.toString(number));
+                writer.endNode();
+            }
+        }
+
+        @Override
+        public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+            int[] v = EMPTY;
+            int size = 0;
+            if (reader.hasMoreChildren()) {
+                while (reader.hasMoreChildren()) {
+                    reader.moveDown();
+                    if (size == v.length) {
+                        v = Arrays.copyOf(v, Math.max(4, v.length * 2));
+                    }
+                    v[size++] = Integer.parseInt(reader.getValue().trim());
+                    reader.moveUp();
+                }
+            } else {
+                // the comma-separated format
+                String value = reader.getValue().trim();
+                if (!value.isEmpty()) {
+                    String[] tokens = value.split(",");
+                    v = new int[tokens.length];
+                    for (String token : tokens) {
+                        v[size++] = Integer.parseInt(token.trim());
+                    }
+                }
+            }
+            return new PromotionAttempts(size == v.length ? v : Arrays.copyOf(v, size));
+        }
+    }
+}
@@ -26,4 +26,15 @@ public abstract class PromotionConditionDescriptor extends Descriptor<PromotionC
      *      true to allow user to configure this promotion condition for the given project.
      */
     public abstract boolean isApplicable(AbstractProject<?,?> item);
+
+    /**
+     * Returns true if the promotion processes using this condition have to be loaded as soon as their project is loaded,
+     * instead of on their first access, e.g. because the condition reacts to the builds of other projects.
+     *
+     * @return
+     *      false by default.
+     */
+    public boolean isLoadedEagerly() {
+        return false;
+    }
 }
@@ -0,0 +1,247 @@
+package hudson.plugins.promoted_builds;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.plugins.promoted_builds.conditions.DownstreamPassCondition;
+import hudson.plugins.promoted_builds.conditions.ManualCondition;
+import hudson.plugins.promoted_builds.conditions.SelfPromotionCondition;
+import hudson.plugins.promoted_builds.conditions.UpstreamPromotionCondition;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import jenkins.util.SystemProperties;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Memoizes the results of {@link PromotionCondition#isMet(PromotionProcess, AbstractBuild)}
+ * per (build, condition), so that {@link PromotionProcess#isMet(AbstractBuild)},
+ * {@link PromotionProcess#getMetQualifications(AbstractBuild)} and {@link PromotionProcess#getUnmetConditions(AbstractBuild)}
+ * share a single evaluation. Every condition instance belongs to a single process,
+ * and a reconfigured process gets new instances, which invalidates its old results.
+ *
+ * <p>
+ * Only the conditions of this plugin, whose inputs are known, are memoized:
+ * </p>
+ * <ul>
+ *     <li>{@link SelfPromotionCondition}s of a completed build and met {@link ManualCondition}s never change again
+ *         and are kept until the build is evicted.</li>
+ *     <li>Other results of {@link SelfPromotionCondition} and {@link UpstreamPromotionCondition}
+ *         are kept until the build completes, is approved or one of its promotions completes.</li>
+ *     <li>Results of {@link DownstreamPassCondition} are also dropped whenever any build completes or is deleted.</li>
+ * </ul>
+ * <p>
+ * Unmet {@link ManualCondition}s and other conditions, e.g. Groovy scripts or conditions of other plugins,
+ * are evaluated on every call.
+ * </p>
+ * <p>
+ * Results are keyed by {@link AbstractBuild#getExternalizableId()}, so that neither the memo nor the badges
+ * keep build records in memory, and only the results of the {@link #MAX_BUILDS} most recently checked builds are kept.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class PromotionConditionEvaluator {
+
+    /**
+     * Maximum number of builds, whose results are kept.
+     */
+    private static final int MAX_BUILDS = SystemProperties.getInteger(PromotionConditionEvaluator.class.getName() + ".maxBuilds", 1000);
+
+    /**
+     * Results per {@link AbstractBuild#getExternalizableId()}, least recently checked builds are evicted first.
+     */
+    private static final Map<String,Results> RESULTS = new LinkedHashMap<String,Results>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Results> eldest) {
+            return size() > MAX_BUILDS;
+        }
+    };
+
+    /**
+     * Incremented on every build completion or deletion, see {@link Memo#completions}.
+     */
+    private static final AtomicLong COMPLETIONS = new AtomicLong();
+
+    /**
+     * Incremented on every invalidation, so that a result evaluated concurrently with an invalidation is not stored.
+     */
+    private static final AtomicLong INVALIDATIONS = new AtomicLong();
+
+    /**
+     * Number of results reused instead of evaluated again.
+     */
+    private static final AtomicLong HITS = new AtomicLong();
+
+    private PromotionConditionEvaluator() {}
+
+    private static final class Results {
+        /**
+         * Set by {@link RunListenerImpl#onCompleted}, while {@link AbstractBuild#isLogUpdated()} is still {@code true}.
+         */
+        private boolean completed;
+        private final Map<PromotionCondition,Memo> memos = new IdentityHashMap<PromotionCondition,Memo>();
+    }
+
+    private static final class Memo {
+        @CheckForNull
+        private final PromotionBadge badge;
+        private final boolean permanent;
+        /**
+         * Value of {@link #COMPLETIONS} when the result was evaluated, or {@code -1} if it does not depend on other builds.
+         */
+        private final long completions;
+
+        Memo(@CheckForNull PromotionBadge badge, boolean permanent, long completions) {
+            this.badge = badge;
+            this.permanent = permanent;
+            this.completions = completions;
+        }
+
+        boolean isValid() {
+            return permanent || completions < 0 || completions == COMPLETIONS.get();
+        }
+    }
+
+    /**
+     * Checks if the condition is met, reusing the previous result if it cannot have changed since.
+     * @param process Process, which owns the condition
+     * @param condition Condition to check
+     * @param build Build to check
+     * @return Badge as returned by {@link PromotionCondition#isMet(PromotionProcess, AbstractBuild)}
+     */
+    @CheckForNull
+    public static PromotionBadge isMet(@NonNull PromotionProcess process, @NonNull PromotionCondition condition,
+                                       @NonNull AbstractBuild<?,?> build) {
+        if (!isMemoizable(condition)) {
+            return condition.isMet(process, build);
+        }
+
+        final String id = build.getExternalizableId();
+        boolean completed;
+        synchronized (RESULTS) {
+            Results results = RESULTS.get(id);
+            Memo r = results != null ? results.memos.get(condition) : null;
+            if (r != null && r.isValid()) {
+                HITS.incrementAndGet();
+                return r.badge;
+            }
+            completed = results != null && results.completed;
+        }
+
+        // read the counter before the evaluation, so that a concurrent completion invalidates the result
+        final long completions = condition instanceof DownstreamPassCondition ? COMPLETIONS.get() : -1;
+        final long invalidations = INVALIDATIONS.get();
+        final boolean finished = completed || !build.isLogUpdated();
+        final PromotionBadge badge = condition.isMet(process, build);
+        final boolean permanent = condition instanceof SelfPromotionCondition && finished
+                || condition instanceof ManualCondition && badge != null;
+        if (condition instanceof ManualCondition && !permanent) {
+            // approvals may be attached to the build by other means than ManualCondition.approve()
+            return badge;
+        }
+
+        synchronized (RESULTS) {
+            if (!permanent && invalidations != INVALIDATIONS.get()) {
+                return badge;
+            }
+            results(id).memos.put(condition, new Memo(badge, permanent, completions));
+        }
+        return badge;
+    }
+
+    private static Results results(String id) {
+        Results results = RESULTS.get(id);
+        if (results == null) {
+            RESULTS.put(id, results = new Results());
+        }
+        return results;
+    }
+
+    private static boolean isMemoizable(PromotionCondition condition) {
+        return condition instanceof SelfPromotionCondition
+                || condition instanceof ManualCondition
+                || condition instanceof UpstreamPromotionCondition
+                || condition instanceof DownstreamPassCondition;
+    }
+
+    /**
+     * Drops the results of the given build, which are not permanent.
+     * Called when the build completes, is approved or one of its promotions succeeds.
+     * @param build Build, which has changed
+     */
+    public static void invalidate(@CheckForNull AbstractBuild<?,?> build) {
+        if (build == null) {
+            return;
+        }
+        synchronized (RESULTS) {
+            INVALIDATIONS.incrementAndGet();
+            Results results = RESULTS.get(build.getExternalizableId());
+            if (results == null) {
+                return;
+            }
+            results.memos.values().removeIf(r -> !r.permanent);
+            if (results.memos.isEmpty() && !results.completed) {
+                RESULTS.remove(build.getExternalizableId());
+            }
+        }
+    }
+
+    /**
+     * Drops all the results.
+     */
+    public static void clear() {
+        synchronized (RESULTS) {
+            RESULTS.clear();
+        }
+    }
+
+    /**
+     * @return Number of results reused so far
+     */
+    static long getHitCount() {
+        return HITS.get();
+    }
+
+    /**
+     * Invalidates the results before any other listener considers promotions for the completed build,
+     * and marks the build as completed, so that the results of {@link SelfPromotionCondition} evaluated
+     * by these listeners are kept.
+     */
+    @Extension(ordinal = Double.MAX_VALUE)
+    public static final class RunListenerImpl extends RunListener<AbstractBuild<?,?>> {
+        public RunListenerImpl() {
+            super((Class)AbstractBuild.class);
+        }
+
+        @Override
+        public void onCompleted(AbstractBuild<?,?> build, TaskListener listener) {
+            COMPLETIONS.incrementAndGet();
+            invalidate(build);
+            synchronized (RESULTS) {
+                results(build.getExternalizableId()).completed = true;
+            }
+            if (build instanceof Promotion) {
+                invalidate(((Promotion) build).getTargetBuild());
+            }
+        }
+
+        @Override
+        public void onDeleted(AbstractBuild<?,?> build) {
+            COMPLETIONS.incrementAndGet();
+            synchronized (RESULTS) {
+                INVALIDATIONS.incrementAndGet();
+                RESULTS.remove(build.getExternalizableId());
+            }
+            if (build instanceof Promotion) {
+                invalidate(((Promotion) build).getTargetBuild());
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package hudson.plugins.promoted_builds;
+
+import hudson.model.AbstractBuild;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.StreamTaskListener;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.springframework.security.core.Authentication;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Considers the promotions triggered by the build completions off the executor threads of the completed builds.
+ *
+ * <p>
+ * The run listeners of the promotion conditions only submit the (build, process) pairs to be considered,
+ * and a small pool evaluates the conditions, saves the build and schedules the promotion.
+ * Once the queue is full, the submitting thread considers the promotion itself, which slows down the completions
+ * instead of dropping them.
+ * Setting the number of the threads to {@code 0} restores the synchronous considerations.
+ * The promotions are considered as the user, who has submitted them. The promotions and the failures are printed
+ * to the log of the build, whose completion has submitted them, once its listener is closed the log file is appended to.
+ * </p>
+ *
+ * <p>
+ * A pair is never considered by two threads at once. Submissions of a pair, which is waiting or being considered,
+ * are coalesced: once the running consideration is over, the pair waits for a short window, so that the rest of a burst
+ * of downstream completions settles, and it is considered once more. The final state is therefore always evaluated,
+ * while a build fanning out to many downstream jobs is evaluated a few times instead of once per downstream completion.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class PromotionConsiderationQueue {
+
+    /**
+     * Number of the threads considering the promotions.
+     */
+    private static final int THREADS = SystemProperties.getInteger(PromotionConsiderationQueue.class.getName() + ".threads", 2);
+
+    /**
+     * Maximum number of the considerations waiting for a thread.
+     */
+    private static final int QUEUE_SIZE = SystemProperties.getInteger(PromotionConsiderationQueue.class.getName() + ".queueSize", 256);
+
+    /**
+     * Time to wait before considering a pair again, which has been submitted while it was being considered.
+     */
+    private static final long DEBOUNCE_MILLIS = SystemProperties.getLong(PromotionConsiderationQueue.class.getName() + ".debounceMillis", 500L);
+
+    @CheckForNull
+    private static final ThreadPoolExecutor EXECUTOR = THREADS > 0 ? createExecutor(THREADS, QUEUE_SIZE) : null;
+
+    /**
+     * Pairs, which are waiting or being considered, by {@link #key(PromotionProcess, AbstractBuild)}.
+     * Also guards the state of the {@link Gate}s.
+     */
+    private static final Map<String,Gate> GATES = new HashMap<String,Gate>();
+
+    /**
+     * Number of the considerations run so far.
+     */
+    private static final AtomicLong CONSIDERATIONS = new AtomicLong();
+
+    private PromotionConsiderationQueue() {}
+
+    private static ThreadPoolExecutor createExecutor(int threads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                new NamingThreadFactory(new DaemonThreadFactory(), "PromotionConsiderationQueue"),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Schedules the consideration of the given build by the given process,
+     * same as {@link PromotionProcess#considerPromotion2(AbstractBuild)} called by the current thread.
+     * @param process Promotion process
+     * @param build Build to be promoted
+     * @param origin Completed build, which has triggered the consideration
+     * @param listener Listener of the completed build
+     */
+    public static void submit(@NonNull PromotionProcess process, @NonNull AbstractBuild<?,?> build,
+                              @NonNull AbstractBuild<?,?> origin, @NonNull TaskListener listener) {
+        String key = key(process, build);
+        Authentication auth = Jenkins.getAuthentication2();
+        Gate g;
+        synchronized (GATES) {
+            g = GATES.get(key);
+            if (g != null) {
+                // the pending consideration sees the latest state, or the running one is followed by another
+                g.update(process, build, origin, listener, auth);
+                LOGGER.log(Level.FINER, "Coalesced the consideration of {0}", key);
+                return;
+            }
+            g = new Gate(key, process, build, origin, listener, auth);
+            GATES.put(key, g);
+        }
+        if (EXECUTOR == null) {
+            g.run();
+            return;
+        }
+        try {
+            EXECUTOR.execute(g);
+        } catch (RejectedExecutionException e) {
+            // the queue is full, slow down the completions instead of dropping the consideration
+            g.run();
+        }
+    }
+
+    /**
+     * Hands a gate back to the executor after {@link #DEBOUNCE_MILLIS}.
+     * The timer thread is shared by the whole instance, so it never considers the promotion itself:
+     * while the queue is full, the gate waits for another period.
+     */
+    private static void requeue(Gate g) {
+        Timer.get().schedule(() -> {
+            try {
+                EXECUTOR.execute(g);
+            } catch (RejectedExecutionException e) {
+                requeue(g);
+            }
+        }, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the number of the pairs, which are waiting or being considered.
+     */
+    public static int getQueuedCount() {
+        synchronized (GATES) {
+            return GATES.size();
+        }
+    }
+
+    /**
+     * Gets the number of the considerations run so far, the coalesced submissions are not counted.
+     */
+    public static long getConsiderationCount() {
+        return CONSIDERATIONS.get();
+    }
+
+    /**
+     * Waits until no pair is waiting or being considered, including the pairs submitted meanwhile.
+     * Meant for the tests, as {@code JenkinsRule.waitUntilNoActivity()} does not know about this queue.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void awaitQuiescence() throws InterruptedException {
+        synchronized (GATES) {
+            while (!GATES.isEmpty()) {
+                GATES.wait();
+            }
+        }
+    }
+
+    /**
+     * Removes a gate, whose considerations are over. The caller holds the lock of {@link #GATES}.
+     */
+    private static void remove(String key) {
+        GATES.remove(key);
+        GATES.notifyAll();
+    }
+
+    private static String key(PromotionProcess process, AbstractBuild<?,?> build) {
+        // the process belongs to the job of the build
+        return process.getFullName() + '#' + build.getNumber();
+    }
+
+    /**
+     * Considerations of a single pair. The fields are guarded by {@link #GATES}.
+     */
+    private static final class Gate implements Runnable {
+        private final String key;
+        private PromotionProcess process;
+        private AbstractBuild<?,?> build;
+        /**
+         * Completed build, which has submitted the pair last, and its listener.
+         */
+        private AbstractBuild<?,?> origin;
+        private TaskListener listener;
+        /**
+         * User, who has submitted the pair last.
+         */
+        private Authentication auth;
+        /**
+         * Whether the pair has been submitted since the start of the last consideration.
+         */
+        private boolean dirty = true;
+
+        Gate(String key, PromotionProcess process, AbstractBuild<?,?> build,
+             AbstractBuild<?,?> origin, TaskListener listener, Authentication auth) {
+            this.key = key;
+            update(process, build, origin, listener, auth);
+        }
+
+        void update(PromotionProcess process, AbstractBuild<?,?> build,
+                    AbstractBuild<?,?> origin, TaskListener listener, Authentication auth) {
+            this.process = process;
+            this.build = build;
+            this.origin = origin;
+            this.listener = listener;
+            this.auth = auth;
+            dirty = true;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                PromotionProcess process;
+                AbstractBuild<?,?> build;
+                AbstractBuild<?,?> origin;
+                TaskListener listener;
+                Authentication auth;
+                synchronized (GATES) {
+                    // anything submitted from now on needs another consideration
+                    dirty = false;
+                    process = this.process;
+                    build = this.build;
+                    origin = this.origin;
+                    listener = this.listener;
+                    auth = this.auth;
+                }
+                boolean considered = false;
+                try {
+                    consider(process, build, origin, listener, auth);
+                    considered = true;
+                } finally {
+                    if (!considered) {
+                        // do not block the later submissions of the pair
+                        synchronized (GATES) {
+                            remove(key);
+                        }
+                    }
+                }
+                synchronized (GATES) {
+                    if (!dirty) {
+                        remove(key);
+                        return;
+                    }
+                }
+                if (EXECUTOR != null && DEBOUNCE_MILLIS > 0) {
+                    // let the burst settle, the submissions meanwhile are coalesced into the next consideration
+                    requeue(this);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void consider(PromotionProcess process, AbstractBuild<?,?> build,
+                                 AbstractBuild<?,?> origin, TaskListener listener, Authentication auth) {
+        CONSIDERATIONS.incrementAndGet();
+        try (ACLContext ctx = ACL.as2(auth)) {
+            if (process.considerPromotion2(build) != null) {
+                LOGGER.log(Level.FINE, "Promoted {0} by {1}", new Object[] {build.getFullDisplayName(), process.getFullName()});
+                print(origin, listener, l -> l.getLogger().println("Promoted " + build.getFullDisplayName() + " by " + process.getFullDisplayName()));
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to consider the promotion of " + build + " by " + process.getFullName(), e);
+            print(origin, listener, l -> e.printStackTrace(l.error("Failed to promote a build")));
+        }
+    }
+
+    /**
+     * Prints to the log of the completed build, which has submitted a consideration.
+     * Its listener is used as long as it is open, the log file is appended to once the build is over.
+     */
+    private static void print(AbstractBuild<?,?> origin, TaskListener listener, Consumer<TaskListener> action) {
+        if (origin.isLogUpdated()) {
+            action.accept(listener);
+            if (!listener.getLogger().checkError()) {
+                return;
+            }
+            // the listener has been closed meanwhile
+        }
+        try (OutputStream out = new FileOutputStream(origin.getLogFile(), true)) {
+            StreamTaskListener l = new StreamTaskListener(out, origin.getCharset());
+            action.accept(l);
+            l.getLogger().flush();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write to the log of " + origin, e);
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(PromotionConsiderationQueue.class.getName());
+}
@@ -0,0 +1,448 @@
+package hudson.plugins.promoted_builds;
+
+import hudson.BulkChange;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.listeners.RunListener;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Per-job index of the promotion activity, stored under the {@code promotions} directory
+ * next to the {@link PromotionProcess} definitions.
+ *
+ * <p>
+ * For each process, the index remembers the numbers of the owner builds that have been promoted
+ * and the numbers of the {@link Promotion}s that were attempted for them, so that
+ * {@link PromotedProjectAction} can answer its queries without loading every build record of the job.
+ * If the index file is missing (for example after an upgrade), it is rebuilt once from the build records.
+ * It is also rebuilt when a process has allocated a {@link Promotion} number the index has not seen,
+ * which happens when a deferred save has been lost or an older version of the plugin has promoted builds meanwhile.
+ * </p>
+ *
+ * <p>
+ * Changes are written through the {@link DeferredBuildSaver}, so that a burst of promotion events rewrites the file once.
+ * Entries follow the renames and deletions of the processes, and the entries of deleted builds and promotions are dropped,
+ * so the index never outgrows the records it points to.
+ * </p>
+ *
+ * @see JobPropertyImpl#getPromotionIndex()
+ */
+@Restricted(NoExternalUse.class)
+public final class PromotionIndex implements Saveable {
+
+    /**
+     * Index entries keyed by {@link PromotionProcess#getName()}.
+     */
+    private Map<String,Entry> entries = new HashMap<String,Entry>();
+
+    /**
+     * Highest {@link Promotion} number seen for each process, keyed by {@link PromotionProcess#getName()}.
+     * Unlike {@link Entry#promotions}, it is not lowered by the deletions.
+     * Compared with the build numbers allocated by the processes in {@link #isUpToDate(File)}.
+     */
+    private Map<String,Integer> lastPromotions = new HashMap<String,Integer>();
+
+    private transient XmlFile file;
+
+    private PromotionIndex(XmlFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Promotion activity of a single {@link PromotionProcess}.
+     */
+    private static final class Entry {
+        /**
+         * Numbers of the owner builds that carry a {@link Status} for the process.
+         */
+        private final TreeSet<Integer> builds = new TreeSet<Integer>();
+        /**
+         * {@link Promotion} number to the number of the build it promoted.
+         */
+        private final TreeMap<Integer,Integer> promotions = new TreeMap<Integer,Integer>();
+        /**
+         * Numbers of the {@link Promotion}s that completed successfully.
+         */
+        private final TreeSet<Integer> successful = new TreeSet<Integer>();
+
+        private boolean isEmpty() {
+            return builds.isEmpty() && promotions.isEmpty();
+        }
+
+        private Entry copy() {
+            Entry e = new Entry();
+            e.builds.addAll(builds);
+            e.promotions.putAll(promotions);
+            e.successful.addAll(successful);
+            return e;
+        }
+    }
+
+    /**
+     * Loads the index of the given job property, rebuilding it from the build records if needed.
+     */
+    @NonNull
+    /*package*/ static PromotionIndex load(@NonNull JobPropertyImpl property) {
+        XmlFile file = new XmlFile(Jenkins.XSTREAM2, new File(property.getRootDir(), FILE_NAME));
+        if (file.exists()) {
+            try {
+                PromotionIndex index = (PromotionIndex) file.read();
+                index.file = file;
+                if (index.entries == null) {
+                    index.entries = new HashMap<String,Entry>();
+                }
+                if (index.lastPromotions == null) {
+                    index.lastPromotions = new HashMap<String,Integer>();
+                }
+                if (index.isUpToDate(property.getRootDir())) {
+                    return index;
+                }
+                LOGGER.log(Level.INFO, "The promotion index {0} is out of date, rebuilding it", file);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to load the promotion index " + file + ", rebuilding it", e);
+            }
+        }
+
+        PromotionIndex index = new PromotionIndex(file);
+        index.rebuild(property.getOwner(), property.getRootDir());
+        return index;
+    }
+
+    /**
+     * Checks that no process has allocated a {@link Promotion} number the index has not seen.
+     * @param rootDir Directory of the process definitions
+     */
+    private synchronized boolean isUpToDate(File rootDir) {
+        File[] subdirs = rootDir.listFiles(File::isDirectory);
+        if (subdirs != null) {
+            for (File dir : subdirs) {
+                Integer last = lastPromotions.get(dir.getName());
+                if (getLastAllocatedNumber(dir) > (last != null ? last : 0)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the number of the last {@link Promotion} allocated by the process stored in the given directory,
+     * which the core writes right away, unlike the build records.
+     */
+    private static int getLastAllocatedNumber(File processDir) {
+        File f = new File(processDir, "nextBuildNumber");
+        if (!f.exists()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(Files.readString(f.toPath(), StandardCharsets.UTF_8).trim()) - 1;
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Failed to read " + f, e);
+            return 0;
+        }
+    }
+
+    /**
+     * Scans all the builds of the job. Only used when there is no index on the disk yet, or it is out of date.
+     * The caller must not hold the lock of the {@link JobPropertyImpl}, loading the builds takes a while.
+     */
+    private synchronized void rebuild(AbstractProject<?,?> owner, File rootDir) {
+        LOGGER.log(Level.FINE, "Rebuilding the promotion index of {0}", owner.getFullName());
+        entries.clear();
+        lastPromotions.clear();
+        File[] subdirs = rootDir.listFiles(File::isDirectory);
+        if (subdirs != null) {
+            // read first, the promotions allocated during the scan make the next load rebuild again
+            for (File dir : subdirs) {
+                lastPromotions.put(dir.getName(), getLastAllocatedNumber(dir));
+            }
+        }
+        for (AbstractBuild<?,?> build : owner.getBuilds()) {
+            PromotedBuildAction a = build.getAction(PromotedBuildAction.class);
+            if (a == null) {
+                continue;
+            }
+            for (Status s : a.getPromotions()) {
+                Entry e = getOrCreate(s.name);
+                e.builds.add(build.getNumber());
+                for (int n : s.getPromotionAttempts()) {
+                    e.promotions.put(n, build.getNumber());
+                }
+                if (s.getPromotionNumber() >= 0) {
+                    e.successful.add(s.getPromotionNumber());
+                }
+            }
+        }
+        saveQuietly();
+    }
+
+    private Entry getOrCreate(String process) {
+        Entry e = entries.get(process);
+        if (e == null) {
+            entries.put(process, e = new Entry());
+        }
+        return e;
+    }
+
+    /**
+     * Called when a build qualifies for the given process.
+     * @param process Name of the promotion process
+     * @param build Number of the qualified build
+     */
+    /*package*/ synchronized void onQualified(String process, int build) {
+        if (getOrCreate(process).builds.add(build)) {
+            saveQuietly();
+        }
+    }
+
+    /**
+     * Called when a {@link Promotion} of the given build starts.
+     * @param process Name of the promotion process
+     * @param build Number of the promoted build
+     * @param promotion Number of the {@link Promotion}
+     */
+    /*package*/ synchronized void onPromotionAttempt(String process, int build, int promotion) {
+        Entry e = getOrCreate(process);
+        e.builds.add(build);
+        e.promotions.put(promotion, build);
+        lastPromotions.merge(process, promotion, Math::max);
+        saveQuietly();
+    }
+
+    /**
+     * Called when a {@link Promotion} of the given build completes successfully.
+     * @param process Name of the promotion process
+     * @param build Number of the promoted build
+     * @param promotion Number of the {@link Promotion}
+     */
+    /*package*/ synchronized void onSuccessfulPromotion(String process, int build, int promotion) {
+        Entry e = getOrCreate(process);
+        e.builds.add(build);
+        e.promotions.put(promotion, build);
+        e.successful.add(promotion);
+        lastPromotions.merge(process, promotion, Math::max);
+        saveQuietly();
+    }
+
+    /**
+     * Called when a build of the owner job is deleted.
+     * @param build Number of the deleted build
+     */
+    /*package*/ synchronized void onBuildDeleted(int build) {
+        boolean modified = false;
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            Entry e = it.next();
+            if (!e.builds.remove(build)) {
+                continue;
+            }
+            modified = true;
+            for (Iterator<Map.Entry<Integer,Integer>> p = e.promotions.entrySet().iterator(); p.hasNext();) {
+                Map.Entry<Integer,Integer> promotion = p.next();
+                if (promotion.getValue() == build) {
+                    e.successful.remove(promotion.getKey());
+                    p.remove();
+                }
+            }
+            if (e.isEmpty()) {
+                it.remove();
+            }
+        }
+        if (modified) {
+            saveQuietly();
+        }
+    }
+
+    /**
+     * Called when a {@link PromotionProcess} is deleted.
+     * @param process Name of the deleted process
+     */
+    /*package*/ synchronized void onProcessDeleted(String process) {
+        boolean modified = entries.remove(process) != null;
+        if (lastPromotions.remove(process) != null || modified) {
+            saveQuietly();
+        }
+    }
+
+    /**
+     * Called when a {@link PromotionProcess} is renamed.
+     * @param oldName Former name of the process
+     * @param newName New name of the process
+     */
+    /*package*/ synchronized void onProcessRenamed(String oldName, String newName) {
+        Entry e = entries.remove(oldName);
+        if (e != null) {
+            entries.put(newName, e);
+        }
+        Integer last = lastPromotions.remove(oldName);
+        if (last != null) {
+            lastPromotions.put(newName, last);
+        }
+        if (e != null || last != null) {
+            saveQuietly();
+        }
+    }
+
+    /**
+     * Called when a {@link Promotion} record is deleted.
+     * @param process Name of the promotion process
+     * @param promotion Number of the deleted {@link Promotion}
+     */
+    /*package*/ synchronized void onPromotionDeleted(String process, int promotion) {
+        Entry e = entries.get(process);
+        if (e != null && e.promotions.remove(promotion) != null) {
+            e.successful.remove(promotion);
+            saveQuietly();
+        }
+    }
+
+    /**
+     * Gets the numbers of the {@link Promotion}s attempted by the given process.
+     * @param process Name of the promotion process
+     * @return Promotion numbers in the ascending order. May be empty
+     */
+    @NonNull
+    public synchronized List<Integer> getPromotionNumbers(String process) {
+        Entry e = entries.get(process);
+        return e == null ? new ArrayList<Integer>() : new ArrayList<Integer>(e.promotions.keySet());
+    }
+
+    /**
+     * Gets the number of the build promoted by the given {@link Promotion}.
+     * @param process Name of the promotion process
+     * @param promotion Number of the {@link Promotion}
+     * @return Build number or {@code null} if the promotion is not known
+     */
+    @CheckForNull
+    public synchronized Integer getPromotedBuildNumber(String process, int promotion) {
+        Entry e = entries.get(process);
+        return e == null ? null : e.promotions.get(promotion);
+    }
+
+    /**
+     * Gets the numbers of the builds that carry a {@link Status} for the given process.
+     * @param process Name of the promotion process
+     * @return Build numbers in the ascending order. May be empty
+     */
+    @NonNull
+    public synchronized List<Integer> getBuildNumbers(String process) {
+        Entry e = entries.get(process);
+        return e == null ? new ArrayList<Integer>() : new ArrayList<Integer>(e.builds);
+    }
+
+    /**
+     * Gets the number of the newest build that carries a {@link Status} for the given process.
+     * Backs {@link PromotionProcess#asPermalink()}.
+     * @param process Name of the promotion process
+     * @return Build number or {@code null} if no build has qualified for the process
+     */
+    @CheckForNull
+    public synchronized Integer getLastBuildNumber(String process) {
+        Entry e = entries.get(process);
+        return e == null || e.builds.isEmpty() ? null : e.builds.last();
+    }
+
+    /**
+     * Gets the latest promotion of the given process.
+     * @param owner Job, which owns the index
+     * @param process Name of the promotion process
+     * @return Summary or {@code null} if the process has not promoted any build yet
+     */
+    @CheckForNull
+    public synchronized PromotionSummary getSummary(@NonNull AbstractProject<?,?> owner, String process) {
+        Entry e = entries.get(process);
+        if (e == null || e.promotions.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Integer,Integer> last = e.promotions.lastEntry();
+        return new PromotionSummary(owner, last.getKey(), last.getValue(), e.successful.contains(last.getKey()));
+    }
+
+    public void save() throws IOException {
+        if (BulkChange.contains(this)) {
+            return;
+        }
+        // written without holding the lock, the events are not blocked by the disk
+        file.write(snapshot());
+    }
+
+    private synchronized PromotionIndex snapshot() {
+        PromotionIndex copy = new PromotionIndex(file);
+        for (Map.Entry<String,Entry> e : entries.entrySet()) {
+            copy.entries.put(e.getKey(), e.getValue().copy());
+        }
+        copy.lastPromotions.putAll(lastPromotions);
+        return copy;
+    }
+
+    private void saveQuietly() {
+        try {
+            DeferredBuildSaver.save(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the promotion index " + file, e);
+        }
+    }
+
+    @CheckForNull
+    /*package*/ static PromotionIndex of(@CheckForNull AbstractProject<?,?> job) {
+        if (job == null) {
+            return null;
+        }
+        JobPropertyImpl jp = job.getProperty(JobPropertyImpl.class);
+        return jp != null ? jp.getPromotionIndex() : null;
+    }
+
+    /**
+     * Keeps the index in sync with deleted builds and promotion records.
+     */
+    @Extension
+    public static final class RunListenerImpl extends RunListener<AbstractBuild<?,?>> {
+        public RunListenerImpl() {
+            super((Class)AbstractBuild.class);
+        }
+
+        @Override
+        public void onDeleted(AbstractBuild<?,?> build) {
+            if (build instanceof Promotion) {
+                PromotionProcess process = ((Promotion) build).getParent();
+                PromotionIndex index = of(process.getOwner());
+                if (index != null) {
+                    index.onPromotionDeleted(process.getName(), build.getNumber());
+                }
+                return;
+            }
+            PromotionIndex index = of(build.getProject());
+            if (index != null) {
+                index.onBuildDeleted(build.getNumber());
+            }
+        }
+    }
+
+    /**
+     * Name of the index file in {@link JobPropertyImpl#getRootDir()}.
+     */
+    /*package*/ static final String FILE_NAME = "promotion-index.xml";
+
+    private static final Logger LOGGER = Logger.getLogger(PromotionIndex.class.getName());
+}
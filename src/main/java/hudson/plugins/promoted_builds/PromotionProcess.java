@@ -9,16 +9,19 @@ import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Action;
 import hudson.model.AutoCompletionCandidates;
+import hudson.model.BooleanParameterDefinition;
 import hudson.model.ParameterValue;
 import hudson.model.BuildableItemWithBuildWrappers;
 import hudson.model.Cause;
 import hudson.model.Cause.UserCause;
+import hudson.model.ChoiceParameterDefinition;
 import hudson.model.DependencyGraph;
 import hudson.model.Describable;
 import hudson.model.Descriptor;
 import hudson.model.Descriptor.FormException;
 import hudson.model.Failure;
 import hudson.model.FreeStyleProject;
+import hudson.model.Item;
 import hudson.model.ItemGroup;
 import hudson.model.JDK;
 import hudson.model.Job;
@@ -26,12 +29,14 @@ import hudson.model.Label;
 import hudson.model.ParameterDefinition;
 import hudson.model.ParametersDefinitionProperty;
 import hudson.model.PermalinkProjectAction.Permalink;
-import hudson.model.Queue.Item;
 import hudson.model.Run;
 import hudson.model.Saveable;
+import hudson.model.StringParameterDefinition;
 import hudson.model.StringParameterValue;
+import hudson.model.TextParameterDefinition;
 import hudson.model.labels.LabelAtom;
 import hudson.model.labels.LabelExpression;
+import hudson.model.listeners.ItemListener;
 import hudson.plugins.promoted_builds.conditions.ManualCondition.ManualApproval;
 import hudson.security.ACL;
 import hudson.tasks.BuildStep;
@@ -58,7 +63,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
@@ -97,6 +104,16 @@ public final class PromotionProcess extends AbstractProject<PromotionProcess,Pro
 
     private List<BuildStep> buildSteps = new ArrayList<BuildStep>();
 
+    /**
+     * Last result of {@link #isVisible()}, see {@link Visibility}.
+     */
+    private transient volatile Visibility visibility;
+
+    /**
+     * Incremented whenever a job is updated or the configuration is reloaded, which invalidates {@link #visibility}.
+     */
+    private static final AtomicLong VISIBILITY_GENERATION = new AtomicLong();
+
     private volatile DescribableList<BuildWrapper, Descriptor<BuildWrapper>> buildWrappers;
     private static final AtomicReferenceFieldUpdater<PromotionProcess,DescribableList> buildWrappersSetter
             = AtomicReferenceFieldUpdater.newUpdater(PromotionProcess.class,DescribableList.class,"buildWrappers");
@@ -296,12 +313,44 @@ public final class PromotionProcess extends AbstractProject<PromotionProcess,Pro
     }
 
     public boolean isVisible(){
-    	if (isVisible == null) return true;
+    	String expression = isVisible;
+    	if (expression == null) return true;
 
     	AbstractProject<?, ?> job = getOwner();
 
     	if (job == null) return true;
 
+    	// the default parameter values only change together with the owner configuration
+    	ParametersDefinitionProperty parameters = job.getProperty(ParametersDefinitionProperty.class);
+    	long generation = VISIBILITY_GENERATION.get();
+    	Visibility v = visibility;
+    	if (v != null && v.expression == expression && v.parameters == parameters && v.generation == generation) {
+    		// unless some of them are computed on every call
+    		return v.fixed ? v.visible : isVisible(job, expression);
+    	}
+    	boolean visible = isVisible(job, expression);
+    	visibility = new Visibility(expression, parameters, generation, hasFixedDefaults(parameters), visible);
+    	return visible;
+    }
+
+    /**
+     * Checks that the default values of all the parameters are given by the job configuration.
+     * Other definitions, such as {@link hudson.model.RunParameterDefinition} or
+     * {@link hudson.plugins.promoted_builds.parameters.PromotedBuildParameterDefinition}, may compute them on every call.
+     */
+    private static boolean hasFixedDefaults(@CheckForNull ParametersDefinitionProperty parameters) {
+    	if (parameters == null) return true;
+    	for (ParameterDefinition d : parameters.getParameterDefinitions()) {
+    		Class<?> c = d.getClass();
+    		if (c != StringParameterDefinition.class && c != TextParameterDefinition.class
+    				&& c != BooleanParameterDefinition.class && c != ChoiceParameterDefinition.class) {
+    			return false;
+    		}
+    	}
+    	return true;
+    }
+
+    private static boolean isVisible(AbstractProject<?, ?> job, String isVisible) {
     	String expandedIsVisible = isVisible;
     	EnvVars environment = getDefaultParameterValuesAsEnvVars(job);
     	if (environment != null){
@@ -356,7 +405,7 @@ public final class PromotionProcess extends AbstractProject<PromotionProcess,Pro
     public List<PromotionBadge> getMetQualifications(AbstractBuild<?,?> build) {
         List<PromotionBadge> badges = new ArrayList<PromotionBadge>();
         for (PromotionCondition cond : conditions) {
-            PromotionBadge b = cond.isMet(this, build);
+            PromotionBadge b = PromotionConditionEvaluator.isMet(this, cond, build);
 
             if (b != null)
                 badges.add(b);
@@ -374,7 +423,7 @@ public final class PromotionProcess extends AbstractProject<PromotionProcess,Pro
         List<PromotionCondition> unmetConditions = new ArrayList<PromotionCondition>();
 
         for (PromotionCondition cond : conditions) {
-            if (cond.isMet(this, build) == null)
+            if (PromotionConditionEvaluator.isMet(this, cond, build) == null)
                 unmetConditions.add(cond);
         }
 
@@ -393,7 +442,7 @@ public final class PromotionProcess extends AbstractProject<PromotionProcess,Pro
     public Status isMet(AbstractBuild<?,?> build) {
         List<PromotionBadge> badges = new ArrayList<PromotionBadge>();
         for (PromotionCondition cond : conditions) {
-            PromotionBadge b = cond.isMet(this, build);
+            PromotionBadge b = PromotionConditionEvaluator.isMet(this, cond, build);
             if(b==null)
                 return null;
             badges.add(b);
@@ -500,8 +549,15 @@ public final class PromotionProcess extends AbstractProject<PromotionProcess,Pro
         if(a!=null) {
             a.add(qualification);
         } else {
-            build.addAction(new PromotedBuildAction(build,qualification));
-            build.save();
+            // the build record is only rewritten when the promotion state is first attached
+            a = new PromotedBuildAction(build,qualification);
+            build.addAction(a);
+            DeferredBuildSaver.save(a);
+            DeferredBuildSaver.save(build);
+        }
+        PromotionIndex index = PromotionIndex.of(build.getProject());
+        if (index != null) {
+            index.onQualified(getName(), build.getNumber());
         }
 
         // schedule promotion activity.
@@ -562,10 +618,7 @@ public final class PromotionProcess extends AbstractProject<PromotionProcess,Pro
     }
 
     public boolean isInQueue(@NonNull AbstractBuild<?,?> build) {
-        for (Item item : Jenkins.get().getQueue().getItems(this))
-            if (item.getAction(PromotionTargetAction.class).resolve(this)==build)
-                return true;
-        return false;
+        return PromotionQueueIndex.get().contains(this, build.getNumber());
     }
 
     //
@@ -614,6 +667,19 @@ public final class PromotionProcess extends AbstractProject<PromotionProcess,Pro
             @Override
             public Run<?, ?> resolve(Job<?, ?> job) {
                 String id = getId();
+                PromotionIndex index = job instanceof AbstractProject ? PromotionIndex.of((AbstractProject<?,?>) job) : null;
+                if (index != null) {
+                    Integer number = index.getLastBuildNumber(id);
+                    Run<?,?> build = number != null ? job.getBuildByNumber(number) : null;
+                    if (build != null) {
+                        PromotedBuildAction a = build.getAction(PromotedBuildAction.class);
+                        if (a != null && a.contains(id))
+                            return build;
+                    }
+                    // also when the index knows nothing of the process, the builds may still have qualified
+                    LOGGER.log(Level.FINE, "Promotion index of {0} is out of sync for {1}, scanning the builds",
+                            new Object[] {job.getFullName(), id});
+                }
                 for( Run<?,?> build : job.getBuilds() ) {
                     PromotedBuildAction a = build.getAction(PromotedBuildAction.class);
                     if(a!=null && a.contains(id))
@@ -756,6 +822,45 @@ public final class PromotionProcess extends AbstractProject<PromotionProcess,Pro
         }
     }
 
+    /**
+     * Result of {@link #isVisible()} together with its inputs.
+     */
+    private static final class Visibility {
+        private final String expression;
+        @CheckForNull
+        private final ParametersDefinitionProperty parameters;
+        private final long generation;
+        /**
+         * Whether {@link #visible} may be reused, see {@link #hasFixedDefaults(ParametersDefinitionProperty)}.
+         */
+        private final boolean fixed;
+        private final boolean visible;
+
+        Visibility(String expression, @CheckForNull ParametersDefinitionProperty parameters, long generation, boolean fixed, boolean visible) {
+            this.expression = expression;
+            this.parameters = parameters;
+            this.generation = generation;
+            this.fixed = fixed;
+            this.visible = visible;
+        }
+    }
+
+    /**
+     * Drops the cached visibility when the parameter definitions of a job may have changed in place.
+     */
+    @Extension
+    public static final class ItemListenerImpl extends ItemListener {
+        @Override
+        public void onLoaded() {
+            VISIBILITY_GENERATION.incrementAndGet();
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            VISIBILITY_GENERATION.incrementAndGet();
+        }
+    }
+
     private static final Logger LOGGER = Logger.getLogger(PromotionProcess.class.getName());
 
     public Future<Promotion> considerPromotion2(AbstractBuild<?, ?> build, ManualApproval approval) throws IOException {
@@ -0,0 +1,172 @@
+package hudson.plugins.promoted_builds;
+
+import hudson.XmlFile;
+import hudson.model.Items;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Loads the {@link PromotionProcess}es of a {@link JobPropertyImpl} from their directories.
+ *
+ * <p>
+ * Every job loads its processes on the first access after its {@link JobPropertyImpl} gets its owner,
+ * which is still during the startup for the jobs with downstream conditions. The process definitions of a job are parsed in parallel
+ * on a small pool shared by all the jobs, which keeps the reactor threads from parsing them one by one.
+ * The pool threads time out once the startup is over.
+ * Results are always returned in the order of the process directory names, regardless of the completion order.
+ * </p>
+ */
+final class PromotionProcessLoader {
+
+    /**
+     * Number of the loader threads. {@code 0} or {@code 1} loads the processes sequentially on the calling thread.
+     */
+    private static final int THREADS = SystemProperties.getInteger(PromotionProcessLoader.class.getName() + ".threads",
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    @CheckForNull
+    private static final ThreadPoolExecutor EXECUTOR = THREADS > 1 ? createExecutor(THREADS) : null;
+
+    /**
+     * Marks the {@link #EXECUTOR} threads while they load a process.
+     */
+    private static final ThreadLocal<Boolean> LOADER_THREAD = new ThreadLocal<Boolean>();
+
+    private PromotionProcessLoader() {}
+
+    private static ThreadPoolExecutor createExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "PromotionProcessLoader"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Checks if the current thread is loading a process on behalf of another thread, which waits for it.
+     */
+    static boolean isLoaderThread() {
+        return LOADER_THREAD.get() != null;
+    }
+
+    /**
+     * Loads the processes from the given directories.
+     * @param property Parent of the processes
+     * @param subdirs Process directories
+     * @param existing If not {@code null}, the processes loaded before, by name. They are reloaded in place
+     *              instead of being created anew, same as {@link hudson.model.ItemGroupMixIn#loadChildren}
+     * @return Loaded processes, sorted by the directory names. Processes failing to load are logged and skipped
+     */
+    @NonNull
+    static List<PromotionProcess> load(@NonNull JobPropertyImpl property, @CheckForNull File[] subdirs,
+                                       @CheckForNull Map<String,PromotionProcess> existing) {
+        final long start = System.nanoTime();
+        if (subdirs == null || subdirs.length == 0) {
+            return new ArrayList<PromotionProcess>();
+        }
+        File[] sorted = subdirs.clone();
+        Arrays.sort(sorted, Comparator.comparing(File::getName));
+
+        List<PromotionProcess> result = new ArrayList<PromotionProcess>(sorted.length);
+        if (EXECUTOR == null || sorted.length == 1) {
+            for (File subdir : sorted) {
+                PromotionProcess p = loadQuietly(property, subdir, existing);
+                if (p != null) {
+                    result.add(p);
+                }
+            }
+        } else {
+            List<Future<PromotionProcess>> futures = new ArrayList<Future<PromotionProcess>>(sorted.length);
+            for (final File subdir : sorted) {
+                futures.add(EXECUTOR.submit(new Callable<PromotionProcess>() {
+                    @Override
+                    public PromotionProcess call() {
+                        // same as the Jenkins startup, regardless of the user who has triggered the reload
+                        LOADER_THREAD.set(Boolean.TRUE);
+                        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+                            return loadQuietly(property, subdir, existing);
+                        } finally {
+                            LOADER_THREAD.remove();
+                        }
+                    }
+                }));
+            }
+            boolean interrupted = false;
+            for (int i = 0; i < futures.size(); i++) {
+                PromotionProcess p = null;
+                while (true) {
+                    try {
+                        p = futures.get(i).get();
+                        break;
+                    } catch (InterruptedException e) {
+                        // the job has to be loaded completely, restore the flag afterwards
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        LOGGER.log(Level.WARNING, "Failed to load promotion process in " + sorted[i], e.getCause());
+                        break;
+                    }
+                }
+                if (p != null) {
+                    result.add(p);
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Loaded {0} promotion processes of {1} in {2} ms", new Object[] {
+                    result.size(), property.getOwner() != null ? property.getOwner().getFullName() : property.getRootDir(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+        }
+        return result;
+    }
+
+    @CheckForNull
+    private static PromotionProcess loadQuietly(JobPropertyImpl property, File subdir,
+                                                @CheckForNull Map<String,PromotionProcess> existing) {
+        try {
+            if (existing != null) {
+                // retain the identity of the existing process
+                PromotionProcess p = existing.get(subdir.getName());
+                if (p != null) {
+                    p.onLoad(property, subdir.getName());
+                    return p;
+                }
+                XmlFile config = Items.getConfigFile(subdir);
+                if (!config.exists()) {
+                    LOGGER.log(Level.WARNING, "Could not find file {0}", config.getFile());
+                    return null;
+                }
+            }
+            return (PromotionProcess) Items.load(property, subdir);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to load promotion process in " + subdir, e);
+            return null;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(PromotionProcessLoader.class.getName());
+}
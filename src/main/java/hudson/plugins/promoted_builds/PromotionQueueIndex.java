@@ -0,0 +1,137 @@
+package hudson.plugins.promoted_builds;
+
+import hudson.Extension;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.util.HashMap;
+import java.util.Map;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Index of the {@link Promotion}s waiting in the queue, maintained by a {@link QueueListener}.
+ * Backs {@link PromotionProcess#isInQueue(hudson.model.AbstractBuild)}, so that it does not need to resolve
+ * the {@link PromotionTargetAction} of every queue item.
+ *
+ * <p>
+ * Entries are keyed by the {@link PromotionProcess} instance, which is the queue task, and the target build number.
+ * Promotions always target the builds of the process owner, so the target job is implied by the process and
+ * the entries survive renames of the job.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class PromotionQueueIndex {
+
+    private static final PromotionQueueIndex INSTANCE = new PromotionQueueIndex();
+
+    /**
+     * Queue item ID to its entry.
+     */
+    private final Map<Long,Entry> items = new HashMap<Long,Entry>();
+    /**
+     * Number of the queue items per entry.
+     */
+    private final Map<Entry,Integer> counts = new HashMap<Entry,Integer>();
+
+    private PromotionQueueIndex() {}
+
+    @NonNull
+    public static PromotionQueueIndex get() {
+        return INSTANCE;
+    }
+
+    private static final class Entry {
+        private final PromotionProcess process;
+        private final int number;
+
+        Entry(PromotionProcess process, int number) {
+            this.process = process;
+            this.number = number;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry that = (Entry) o;
+            return process == that.process && number == that.number;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(process) * 31 + number;
+        }
+    }
+
+    /**
+     * Checks if a promotion of the given build by the given process is in the queue.
+     * @param process Promotion process
+     * @param number Number of the target build
+     */
+    public synchronized boolean contains(@NonNull PromotionProcess process, int number) {
+        return counts.containsKey(new Entry(process, number));
+    }
+
+    /**
+     * Gets the number of the promotions in the queue.
+     */
+    public synchronized int size() {
+        return items.size();
+    }
+
+    private synchronized void add(Queue.Item item) {
+        Entry e = toEntry(item);
+        if (e == null || items.containsKey(item.getId())) {
+            return;
+        }
+        items.put(item.getId(), e);
+        Integer c = counts.get(e);
+        counts.put(e, c == null ? 1 : c + 1);
+    }
+
+    private synchronized void remove(Queue.Item item) {
+        Entry e = items.remove(item.getId());
+        if (e == null) {
+            return;
+        }
+        Integer c = counts.get(e);
+        if (c == null || c <= 1) {
+            counts.remove(e);
+        } else {
+            counts.put(e, c - 1);
+        }
+    }
+
+    @CheckForNull
+    private static Entry toEntry(Queue.Item item) {
+        if (!(item.task instanceof PromotionProcess)) {
+            return null;
+        }
+        PromotionTargetAction target = item.getAction(PromotionTargetAction.class);
+        if (target == null) {
+            return null;
+        }
+        return new Entry((PromotionProcess) item.task, target.getNumber());
+    }
+
+    /**
+     * Items enter the queue as {@link Queue.WaitingItem}s, also when the queue is restored on startup,
+     * and {@link #onLeft} is called for every item that leaves it, either started or cancelled.
+     */
+    @Extension
+    public static final class QueueListenerImpl extends QueueListener {
+        @Override
+        public void onEnterWaiting(Queue.WaitingItem wi) {
+            INSTANCE.add(wi);
+        }
+
+        @Override
+        public void onLeft(Queue.LeftItem li) {
+            INSTANCE.remove(li);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package hudson.plugins.promoted_builds;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Latest promotion of a {@link PromotionProcess}, as recorded by the {@link PromotionIndex} of the job.
+ * Renders the {@link PromotionStatusColumn} without loading the {@link Promotion} records.
+ *
+ * @see PromotedProjectAction#getSummary(PromotionProcess)
+ */
+@Restricted(NoExternalUse.class)
+public final class PromotionSummary {
+
+    private final AbstractProject<?,?> owner;
+    private final int promotion;
+    private final int build;
+    private final boolean successful;
+
+    PromotionSummary(@NonNull AbstractProject<?,?> owner, int promotion, int build, boolean successful) {
+        this.owner = owner;
+        this.promotion = promotion;
+        this.build = build;
+        this.successful = successful;
+    }
+
+    /**
+     * Gets the number of the latest {@link Promotion}.
+     */
+    public int getPromotionNumber() {
+        return promotion;
+    }
+
+    /**
+     * Gets the number of the build promoted by the latest {@link Promotion}.
+     */
+    public int getBuildNumber() {
+        return build;
+    }
+
+    /**
+     * Gets the build promoted by the latest {@link Promotion}.
+     * @return Build or {@code null} if its record is already lost
+     */
+    @CheckForNull
+    public AbstractBuild<?,?> getTarget() {
+        return owner.getBuildByNumber(build);
+    }
+
+    /**
+     * Checks if the latest {@link Promotion} has not succeeded (yet), same as {@link Status#isLastAnError()}.
+     */
+    public boolean isLastAnError() {
+        return !successful;
+    }
+}
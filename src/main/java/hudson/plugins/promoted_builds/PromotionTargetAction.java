@@ -1,48 +1,162 @@
 package hudson.plugins.promoted_builds;
 
+import hudson.Extension;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.InvisibleAction;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
 import jenkins.model.Jenkins;
 
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 
 /**
  * Remembers what build it's promoting. Attached to {@link Promotion}.
  *
+ * <p>
+ * The resolved build is cached with a weak reference. The cache is dropped
+ * whenever any build is deleted or any job is renamed, deleted or reloaded.
+ * </p>
+ *
  * @author Kohsuke Kawaguchi
  */
 public class PromotionTargetAction extends InvisibleAction {
     private final String jobName;
     private final int number;
 
+    /**
+     * Incremented whenever a cached target may have become stale.
+     */
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private transient volatile Target target;
+
+    private static final class Target {
+        private final WeakReference<AbstractBuild<?,?>> build;
+        private final long generation;
+        /**
+         * Whether the build has been found by {@link #jobName} rather than through the owner of the process.
+         */
+        private final boolean byName;
+
+        Target(AbstractBuild<?,?> build, long generation, boolean byName) {
+            this.build = new WeakReference<AbstractBuild<?,?>>(build);
+            this.generation = generation;
+            this.byName = byName;
+        }
+    }
+
     public PromotionTargetAction(AbstractBuild<?,?> build) {
         jobName = build.getParent().getFullName();
         number = build.getNumber();
     }
 
+    /**
+     * Gets the number of the target build.
+     */
+    /*package*/ int getNumber() {
+        return number;
+    }
+
     @CheckForNull
     public AbstractBuild<?,?> resolve() {
+        AbstractBuild<?,?> build = getCached(true);
+        if (build != null) {
+            return build;
+        }
+        final long generation = GENERATION.get();
         AbstractProject<?,?> job = Jenkins.get().getItemByFullName(jobName, AbstractProject.class);
         if (job == null) {
             return null;
         }
-        return job.getBuildByNumber(number);
+        build = job.getBuildByNumber(number);
+        cache(build, generation, true);
+        return build;
     }
 
     @CheckForNull
     public AbstractBuild<?,?> resolve(PromotionProcess parent) {
-        AbstractBuild<?,?> build = this.resolve();
+        AbstractBuild<?,?> build = getCached(false);
+        if (build != null) {
+            return build;
+        }
+        build = this.resolve();
         if (build !=null){
             return build;
         }
         //In case of project renamed.
+        final long generation = GENERATION.get();
         AbstractProject<?,?> j = parent.getOwner();
         if (j==null)    return null;
-        return j.getBuildByNumber(number);
+        build = j.getBuildByNumber(number);
+        cache(build, generation, false);
+        return build;
     }
 
     public AbstractBuild<?,?> resolve(Promotion parent) {
         return resolve(parent.getParent());
     }
+
+    @CheckForNull
+    private AbstractBuild<?,?> getCached(boolean byName) {
+        Target t = target;
+        if (t == null || t.generation != GENERATION.get() || byName && !t.byName) {
+            return null;
+        }
+        return t.build.get();
+    }
+
+    private void cache(@CheckForNull AbstractBuild<?,?> build, long generation, boolean byName) {
+        if (build != null) {
+            target = new Target(build, generation, byName);
+        }
+    }
+
+    private static void invalidateAll() {
+        GENERATION.incrementAndGet();
+    }
+
+    /**
+     * Drops the cached targets when a build goes away.
+     */
+    @Extension
+    public static final class RunListenerImpl extends RunListener<AbstractBuild<?,?>> {
+        public RunListenerImpl() {
+            super((Class)AbstractBuild.class);
+        }
+
+        @Override
+        public void onDeleted(AbstractBuild<?,?> build) {
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Drops the cached targets when a job is renamed, moved, deleted or reloaded.
+     */
+    @Extension
+    public static final class ItemListenerImpl extends ItemListener {
+        @Override
+        public void onLoaded() {
+            invalidateAll();
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            invalidateAll();
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            invalidateAll();
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            invalidateAll();
+        }
+    }
 }
@@ -4,6 +4,7 @@ import hudson.Extension;
 import hudson.model.AbstractProject;
 import hudson.model.AutoCompletionCandidates;
 import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
 import hudson.triggers.Trigger;
 import hudson.triggers.TriggerDescriptor;
 import hudson.util.FormValidation;
@@ -11,11 +12,19 @@ import hudson.util.ListBoxModel;
 import hudson.util.ListBoxModel.Option;
 import jenkins.model.Jenkins;
 import org.apache.commons.lang.StringUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 
 /**
  * {@link Trigger} that starts a build when a promotion happens.
@@ -50,6 +59,110 @@ public class PromotionTrigger extends Trigger<AbstractProject> {
         }
     }
 
+    @Override
+    public void start(AbstractProject project, boolean newInstance) {
+        super.start(project, newInstance);
+        String key = getKey(jobName, process);
+        if (key != null) {
+            TRIGGERS.compute(key, (k, triggers) -> {
+                if (triggers == null) {
+                    triggers = ConcurrentHashMap.newKeySet();
+                }
+                triggers.add(this);
+                return triggers;
+            });
+            logRegisteredCount();
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        unregister(this);
+    }
+
+    /**
+     * Considers the triggers that are started for the process of the given promotion.
+     * @param p Successful promotion
+     */
+    @Restricted(NoExternalUse.class)
+    public static void considerAll(Promotion p) {
+        PromotionProcess proc = p.getParent();
+        Set<PromotionTrigger> triggers = TRIGGERS.get(getKey(proc.getOwner().getFullName(), proc.getName()));
+        if (triggers == null) {
+            return;
+        }
+        for (PromotionTrigger pt : triggers) {
+            // the trigger may have been replaced without being stopped
+            if (pt.job == null || pt.job.getTrigger(PromotionTrigger.class) != pt) {
+                unregister(pt);
+                continue;
+            }
+            pt.consider(p);
+        }
+    }
+
+    /**
+     * Gets the number of started triggers in the lookup table.
+     * @return Number of registered triggers
+     */
+    @Restricted(NoExternalUse.class)
+    public static int getRegisteredCount() {
+        int count = 0;
+        for (Set<PromotionTrigger> triggers : TRIGGERS.values()) {
+            count += triggers.size();
+        }
+        return count;
+    }
+
+    private static void unregister(PromotionTrigger pt) {
+        String key = getKey(pt.jobName, pt.process);
+        if (key == null) {
+            return;
+        }
+        TRIGGERS.computeIfPresent(key, (k, triggers) -> {
+            triggers.remove(pt);
+            return triggers.isEmpty() ? null : triggers;
+        });
+        logRegisteredCount();
+    }
+
+    private static void logRegisteredCount() {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "{0} promotion triggers are registered", getRegisteredCount());
+        }
+    }
+
+    @CheckForNull
+    private static String getKey(@CheckForNull String jobName, @CheckForNull String process) {
+        // '#' is not allowed in item names
+        return jobName == null || process == null ? null : jobName + '#' + process;
+    }
+
+    /**
+     * Started triggers keyed by the watched job and process, so that a promotion only
+     * considers the triggers that can apply to it.
+     * Entries reference the trigger instances, hence renames of the triggered jobs need no bookkeeping.
+     */
+    private static final ConcurrentMap<String,Set<PromotionTrigger>> TRIGGERS = new ConcurrentHashMap<String,Set<PromotionTrigger>>();
+
+    /**
+     * Drops the triggers of deleted jobs from the lookup table.
+     */
+    @Extension
+    public static final class ItemListenerImpl extends ItemListener {
+        @Override
+        public void onDeleted(Item item) {
+            for (Set<PromotionTrigger> triggers : TRIGGERS.values()) {
+                for (PromotionTrigger pt : triggers) {
+                    if (pt.job == item) {
+                        unregister(pt);
+                    }
+                }
+            }
+        }
+    }
+
     @Extension
     public static class DescriptorImpl extends TriggerDescriptor {
         @Override
@@ -127,4 +240,6 @@ public class PromotionTrigger extends Trigger<AbstractProject> {
             return r;
         }
     }
+
+    private static final Logger LOGGER = Logger.getLogger(PromotionTrigger.class.getName());
 }
@@ -10,7 +10,6 @@ import hudson.model.ParameterDefinition;
 import hudson.model.ParameterValue;
 import hudson.model.Result;
 import hudson.plugins.promoted_builds.conditions.ManualCondition;
-import hudson.util.Iterators;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONNull;
 import net.sf.json.JSONObject;
@@ -70,7 +69,25 @@ public final class Status {
      * If {@link Promotion} fails, this field can have multiple values.
      * Sorted in the ascending order.
      */
-    private List<Integer> promotionAttempts = new ArrayList<Integer>();
+    private PromotionAttempts promotionAttempts = new PromotionAttempts();
+
+    /**
+     * Build number of the last attempted {@link Promotion}, kept together with its result and start time,
+     * so that the icons do not need to load the promotion builds.
+     *
+     * -1 if unknown, e.g. in the records of the older versions or when the last promotion build was deleted.
+     */
+    private int lastAttempt = -1;
+
+    /**
+     * Result of {@link #lastAttempt}, {@code null} while it is running.
+     */
+    private Result lastAttemptResult;
+
+    /**
+     * Start time of {@link #lastAttempt}.
+     */
+    private long lastAttemptTimestamp;
 
     /*package*/ transient PromotedBuildAction parent;
 
@@ -127,8 +144,7 @@ public final class Status {
             // promotion process undefined (perhaps deleted?). fallback to the default icon
             baseName = "star-gold";
         } else {
-            Promotion l = getLast();
-            if (l!=null && l.getResult()!= Result.SUCCESS) {
+            if (isLastAttemptFailed(p)) {
               return "icon-red";
             }
             baseName = p.getIcon();
@@ -248,6 +264,12 @@ public final class Status {
      */
     /*package*/ void addPromotionAttempt(Promotion p) {
         promotionAttempts.add(p.getNumber());
+        setLastAttempt(p.getNumber(), null, p.getTimeInMillis());
+        PromotionIndex index = getPromotionIndex();
+        AbstractBuild<?, ?> target = getTarget();
+        if (index != null && target != null) {
+            index.onPromotionAttempt(name, target.getNumber(), p.getNumber());
+        }
     }
 
     /**
@@ -256,6 +278,125 @@ public final class Status {
      */
     /*package*/ void onSuccessfulPromotion(Promotion p) {
         promotion = p.getNumber();
+        PromotionIndex index = getPromotionIndex();
+        AbstractBuild<?, ?> target = getTarget();
+        if (index != null && target != null) {
+            index.onSuccessfulPromotion(name, target.getNumber(), p.getNumber());
+        }
+        PromotionConditionEvaluator.invalidate(target);
+    }
+
+    /**
+     * Called when a promotion completes, successfully or not.
+     * @param p Promotion
+     */
+    /*package*/ synchronized void onPromotionCompleted(Promotion p) {
+        if (p.getNumber() == lastAttempt) {
+            lastAttemptResult = p.getResult();
+        }
+    }
+
+    /**
+     * Called when a promotion build is deleted.
+     * @param p Promotion
+     * @return {@code true} if the status has changed
+     */
+    /*package*/ synchronized boolean onPromotionDeleted(Promotion p) {
+        if (p.getNumber() != lastAttempt) {
+            return false;
+        }
+        // the last loadable attempt is looked up again when needed
+        setLastAttempt(-1, null, 0);
+        return true;
+    }
+
+    private synchronized void setLastAttempt(int number, @CheckForNull Result result, long timestamp) {
+        lastAttempt = number;
+        lastAttemptResult = result;
+        lastAttemptTimestamp = timestamp;
+    }
+
+    /**
+     * Gets the build number of the last attempted {@link Promotion}.
+     * @return Build number or {@code -1} if not known without loading the promotion builds
+     */
+    @Restricted(NoExternalUse.class)
+    public synchronized int getLastAttemptNumber() {
+        return lastAttempt;
+    }
+
+    /**
+     * Gets the result of the last attempted {@link Promotion}.
+     * @return Result or {@code null} if it is still running or not known, see {@link #getLastAttemptNumber()}
+     */
+    @CheckForNull
+    @Restricted(NoExternalUse.class)
+    public synchronized Result getLastAttemptResult() {
+        return lastAttempt >= 0 ? lastAttemptResult : null;
+    }
+
+    /**
+     * Gets the start time of the last attempted {@link Promotion}.
+     * @return Time in milliseconds or {@code 0} if not known, see {@link #getLastAttemptNumber()}
+     */
+    @Restricted(NoExternalUse.class)
+    public synchronized long getLastAttemptTimestamp() {
+        return lastAttempt >= 0 ? lastAttemptTimestamp : 0;
+    }
+
+    /**
+     * Checks if the last attempted promotion has not succeeded (yet).
+     * Uses the recorded last attempt and only loads the promotion builds for the records of the older versions.
+     */
+    private boolean isLastAttemptFailed(@NonNull PromotionProcess p) {
+        synchronized (this) {
+            if (lastAttempt >= 0) {
+                return lastAttemptResult != Result.SUCCESS;
+            }
+        }
+        if (promotionAttempts.isEmpty()) {
+            return false;
+        }
+        Promotion l = getLast(p);
+        if (l == null) {
+            return false;
+        }
+        Result r = l.getResult();
+        if (r != null && !l.isBuilding()) {
+            // remember it, persisted together with the next change of the statuses
+            synchronized (this) {
+                if (lastAttempt < 0) {
+                    setLastAttempt(l.getNumber(), r, l.getTimeInMillis());
+                }
+            }
+        }
+        return r != Result.SUCCESS;
+    }
+
+    /**
+     * Gets the build numbers of the attempted {@link Promotion}s.
+     * @return Copy of the build numbers in the ascending order
+     */
+    /*package*/ int[] getPromotionAttempts() {
+        return promotionAttempts.toArray();
+    }
+
+    /**
+     * Gets the build number of the successful {@link Promotion}.
+     * @return Build number or {@code -1} if the promotion was not successful yet
+     */
+    /*package*/ int getPromotionNumber() {
+        return promotion;
+    }
+
+    @CheckForNull
+    private PromotionIndex getPromotionIndex() {
+        AbstractBuild<?, ?> target = getTarget();
+        if (target == null) {
+            return null;
+        }
+        JobPropertyImpl jp = target.getProject().getProperty(JobPropertyImpl.class);
+        return jp != null ? jp.getPromotionIndex() : null;
     }
 
 //
@@ -272,7 +413,8 @@ public final class Status {
         if (p == null) {
             return null;
         }
-        for( Integer n : Iterators.reverse(promotionAttempts) ) {
+        for (int i = promotionAttempts.size() - 1; i >= 0; i--) {
+            int n = promotionAttempts.get(i);
             Promotion b = p.getBuildByNumber(n);
             if(b!=null && b.getResult()== Result.SUCCESS)
                 return b;
@@ -290,7 +432,8 @@ public final class Status {
         if (p == null) {
             return null;
         }
-        for( Integer n : Iterators.reverse(promotionAttempts) ) {
+        for (int i = promotionAttempts.size() - 1; i >= 0; i--) {
+            int n = promotionAttempts.get(i);
             Promotion b = p.getBuildByNumber(n);
             if(b!=null && b.getResult()!=Result.SUCCESS)
                 return b;
@@ -308,7 +451,13 @@ public final class Status {
         if (p == null) {
             return null;
         }
-        for( Integer n : Iterators.reverse(promotionAttempts) ) {
+        return getLast(p);
+    }
+
+    @CheckForNull
+    private Promotion getLast(@NonNull PromotionProcess p) {
+        for (int i = promotionAttempts.size() - 1; i >= 0; i--) {
+            int n = promotionAttempts.get(i);
             Promotion b = p.getBuildByNumber(n);
             if(b!=null)
                 return b;
@@ -318,8 +467,8 @@ public final class Status {
 
     @Restricted(NoExternalUse.class)
     public Boolean isLastAnError() {
-      Promotion l = getLast();
-      return (l != null && l.getResult() != Result.SUCCESS);
+      PromotionProcess p = getProcess();
+      return p != null && isLastAttemptFailed(p);
     }
 
 
@@ -332,7 +481,8 @@ public final class Status {
         List<Promotion> builds = new ArrayList<Promotion>();
         PromotionProcess p = getProcess();
         if (p!=null) {
-            for( Integer n : Iterators.reverse(promotionAttempts) ) {
+            for (int i = promotionAttempts.size() - 1; i >= 0; i--) {
+                int n = promotionAttempts.get(i);
                 Promotion b = p.getBuildByNumber(n);
                 if (b != null) {
                     builds.add(b);
@@ -445,5 +595,12 @@ public final class Status {
         rsp.forwardToPreviousPage(req);
     }
 
+    private Object readResolve() {
+        if (promotionAttempts == null) {
+            promotionAttempts = new PromotionAttempts();
+        }
+        return this;
+    }
+
     private static final Logger LOGGER = Logger.getLogger(Status.class.getName());
 }
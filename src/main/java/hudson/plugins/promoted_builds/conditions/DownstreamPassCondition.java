@@ -1,9 +1,13 @@
 package hudson.plugins.promoted_builds.conditions;
 
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 import hudson.EnvVars;
 import hudson.Extension;
 import hudson.Util;
-import hudson.console.HyperlinkNote;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.AutoCompletionCandidates;
@@ -15,16 +19,20 @@ import hudson.model.InvisibleAction;
 import hudson.model.Item;
 import hudson.model.ItemGroup;
 import hudson.model.Result;
-import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
 import hudson.model.listeners.RunListener;
+import hudson.plugins.promoted_builds.DeferredBuildSaver;
 import hudson.plugins.promoted_builds.JobPropertyImpl;
 import hudson.plugins.promoted_builds.PromotionBadge;
 import hudson.plugins.promoted_builds.PromotionCondition;
 import hudson.plugins.promoted_builds.PromotionConditionDescriptor;
+import hudson.plugins.promoted_builds.PromotionConsiderationQueue;
 import hudson.plugins.promoted_builds.PromotionProcess;
 import hudson.security.ACL;
+import hudson.security.ACLContext;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 import net.sf.json.JSONObject;
 import org.acegisecurity.context.SecurityContext;
 import org.acegisecurity.context.SecurityContextHolder;
@@ -34,10 +42,18 @@ import org.kohsuke.stapler.StaplerRequest2;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 
@@ -58,6 +74,16 @@ public class DownstreamPassCondition extends PromotionCondition {
 
     private final boolean evenIfUnstable;
 
+    /**
+     * Jobs resolved from the last expansion of {@link #jobs}, see {@link #resolve(ItemGroup, String)}.
+     */
+    private transient volatile JobList jobList;
+
+    /**
+     * Incremented whenever a job is created, renamed, moved or deleted, which invalidates all the {@link #jobList}s.
+     */
+    private static final AtomicLong JOB_LIST_GENERATION = new AtomicLong();
+
     public DownstreamPassCondition(String jobs) {
         this(jobs, false);
     }
@@ -130,16 +156,52 @@ public class DownstreamPassCondition extends PromotionCondition {
      * @return never null.
      */
     public List<AbstractProject<?,?>> getJobList(ItemGroup context, EnvVars buildEnvironment) {
-        List<AbstractProject<?,?>> r = new ArrayList<AbstractProject<?,?>>();
         String expandedJobs = getExpandedJobs(jobs, buildEnvironment);
         
-        if (expandedJobs == null) return r;
+        if (expandedJobs == null) return new ArrayList<AbstractProject<?,?>>();
         
-        for (String name : Util.tokenize(expandedJobs,",")) {
-            AbstractProject job = Jenkins.get().getItem(name.trim(), context, AbstractProject.class);
-            if(job!=null)   r.add(job);
+        return new ArrayList<AbstractProject<?,?>>(resolve(context, expandedJobs).projects);
+    }
+
+    /**
+     * Resolves the given expansion of {@link #jobs}.
+     * The result is reused as long as the expansion and the context stay the same and no job is created, renamed or deleted.
+     * Only the resolutions of the system are reused, the visibility of the jobs differs by the user otherwise.
+     */
+    private JobList resolve(ItemGroup context, String expandedJobs) {
+        if (!ACL.SYSTEM_USERNAME.equals(Jenkins.getAuthentication2().getName())) {
+            return new JobList(context, expandedJobs, JOB_LIST_GENERATION.get());
+        }
+        long generation = JOB_LIST_GENERATION.get();
+        JobList l = jobList;
+        if (l == null || l.context != context || l.generation != generation || !l.expandedJobs.equals(expandedJobs)) {
+            jobList = l = new JobList(context, expandedJobs, generation);
+        }
+        return l;
+    }
+
+    /**
+     * Jobs resolved from an expansion of {@link #jobs}. Immutable.
+     */
+    private static final class JobList {
+        private final ItemGroup context;
+        private final String expandedJobs;
+        private final long generation;
+        private final List<AbstractProject<?,?>> projects = new ArrayList<AbstractProject<?,?>>();
+        private final Set<String> fullNames = new HashSet<String>();
+
+        JobList(ItemGroup context, String expandedJobs, long generation) {
+            this.context = context;
+            this.expandedJobs = expandedJobs;
+            this.generation = generation;
+            for (String name : Util.tokenize(expandedJobs,",")) {
+                AbstractProject job = Jenkins.get().getItem(name.trim(), context, AbstractProject.class);
+                if(job!=null) {
+                    projects.add(job);
+                    fullNames.add(job.getFullName());
+                }
+            }
         }
-        return r;
     }
     private static String getExpandedJobs(@CheckForNull String jobs, @CheckForNull EnvVars environment){
         if (environment == null) {
@@ -170,11 +232,7 @@ public class DownstreamPassCondition extends PromotionCondition {
         // quick rejection test
         if(!expandedJobs.contains(job.getName())) return false;
 
-        String name = job.getFullName();
-        for (AbstractProject<?, ?> project : getJobList(ctx)) {
-            if (project.getFullName().equals(name)) return true;
-        }
-        return false;
+        return resolve(ctx, expandedJobs).fullNames.contains(job.getFullName());
     }
 
 
@@ -209,6 +267,14 @@ public class DownstreamPassCondition extends PromotionCondition {
             return Messages.DownstreamPassCondition_DisplayName();
         }
 
+        /**
+         * {@link DownstreamPassConditionRegistry} has to know the watched jobs before any of them completes.
+         */
+        @Override
+        public boolean isLoadedEagerly() {
+            return true;
+        }
+
         public PromotionCondition newInstance(StaplerRequest2 req, JSONObject formData) throws FormException {
             return new DownstreamPassCondition(
                     formData.getString("jobs"), formData.getBoolean("evenIfUnstable"));
@@ -261,16 +327,40 @@ public class DownstreamPassCondition extends PromotionCondition {
 
         @Override
         public void onCompleted(AbstractBuild<?,?> build, TaskListener listener) {
-            // this is not terribly efficient,
+            // only the processes registered as watching this job are considered
+            Map<String,Set<String>> watchers = new LinkedHashMap<String,Set<String>>();
+            for (DownstreamPassConditionRegistry.Watcher w : DownstreamPassConditionRegistry.get().getWatchers(build.getParent())) {
+                Set<String> processes = watchers.get(w.getUpstream());
+                if (processes == null) {
+                    watchers.put(w.getUpstream(), processes = new HashSet<String>());
+                }
+                processes.add(w.getProcess());
+            }
+            if (watchers.isEmpty()) {
+                return;
+            }
+
             EnvVars buildEnvironment = new EnvVars(build.getBuildVariables());
+            // flattened on demand, once for all the upstream jobs
+            Map<String,List<Integer>> upstreamCauses = null;
             SecurityContext previousCtx = ACL.impersonate(ACL.SYSTEM);
             try {
-                for (AbstractProject<?,?> j : Jenkins.get().getAllItems(AbstractProject.class)) {
+                for (Map.Entry<String,Set<String>> e : watchers.entrySet()) {
+                    AbstractProject<?,?> j = Jenkins.get().getItemByFullName(e.getKey(), AbstractProject.class);
+                    if (j == null) {
+                        continue;
+                    }
                     boolean warned = false; // used to avoid warning for the same project more than once.
+                    // the upstream build is the same for all the processes of the job
+                    AbstractBuild<?,?> u = null;
+                    boolean resolved = false;
 
                     JobPropertyImpl jp = j.getProperty(JobPropertyImpl.class);
                     if (jp!=null) {
                         for (PromotionProcess p : jp.getItems()) {
+                            if (!e.getValue().contains(p.getName())) {
+                                continue;
+                            }
                             boolean considerPromotion = false;
                             for (PromotionCondition cond : p.conditions) {
                                 if (cond instanceof DownstreamPassCondition) {
@@ -284,27 +374,31 @@ public class DownstreamPassCondition extends PromotionCondition {
                             }
                             if (considerPromotion) {
                                 try {
-                                    AbstractBuild<?,?> u = build.getUpstreamRelationshipBuild(j);
-                                    if (u==null) {
-                                        // if the fingerprint doesn't tell us, perhaps the cause would tell us?
-                                        final Stack<List<Cause>> stack = new Stack<List<Cause>>();
-                                        stack.push(build.getCauses());
-
-                                        while (!stack.isEmpty()) {
-                                            for (UpstreamCause uc : Util.filter(stack.pop(), UpstreamCause.class)) {
-                                                if (uc.getUpstreamProject().equals(j.getFullName())) {
-                                                    u = j.getBuildByNumber(uc.getUpstreamBuild());
-                                                    if (u!=null) {
-                                                        // remember that this build is a pseudo-downstream of the discovered build.
-                                                        PseudoDownstreamBuilds pdb = u.getAction(PseudoDownstreamBuilds.class);
-                                                        if (pdb==null)
-                                                            u.addAction(pdb=new PseudoDownstreamBuilds());
-                                                        pdb.add(build);
-                                                        u.save();
-                                                        break;
-                                                    }
+                                    if (!resolved) {
+                                        resolved = true;
+                                        u = build.getUpstreamRelationshipBuild(j);
+                                        if (u==null) {
+                                            // if the fingerprint doesn't tell us, perhaps the cause would tell us?
+                                            if (upstreamCauses == null) {
+                                                upstreamCauses = flattenUpstreamCauses(build);
+                                            }
+                                            List<Integer> numbers = upstreamCauses.get(j.getFullName());
+                                            if (numbers != null) {
+                                                // the nearest build, which still exists
+                                                for (int i = 0; i < numbers.size() && u == null; i++) {
+                                                    u = j.getBuildByNumber(numbers.get(i));
+                                                }
+                                            }
+                                            if (u!=null) {
+                                                // remember that this build is a pseudo-downstream of the discovered build.
+                                                PseudoDownstreamBuilds pdb = u.getAction(PseudoDownstreamBuilds.class);
+                                                if (pdb==null)
+                                                    u.addAction(pdb=new PseudoDownstreamBuilds());
+                                                if (!pdb.contains(build)) {
+                                                    // a rerun of the same downstream build does not rewrite the upstream record
+                                                    pdb.add(build);
+                                                    DeferredBuildSaver.save(u);
                                                 }
-                                                stack.push(uc.getUpstreamCauses());
                                             }
                                         }
                                     }
@@ -318,10 +412,12 @@ public class DownstreamPassCondition extends PromotionCondition {
                                         }
                                     }
 
-                                    if (u!=null && p.considerPromotion2(u)!=null)
-                                        listener.getLogger().println("Promoted " + HyperlinkNote.encodeTo('/'+u.getUrl(), u.getFullDisplayName()));
-                                } catch (IOException e) {
-                                    e.printStackTrace(listener.error("Failed to promote a build"));
+                                    if (u!=null) {
+                                        // evaluated off the executor of the build, as SYSTEM same as the lookups above
+                                        PromotionConsiderationQueue.submit(p, u, build, listener);
+                                    }
+                                } catch (IOException ex) {
+                                    ex.printStackTrace(listener.error("Failed to promote a build"));
                                 }
                             }
                         }
@@ -333,6 +429,67 @@ public class DownstreamPassCondition extends PromotionCondition {
             }
         }
 
+        /**
+         * Drops the deleted build from the {@link PseudoDownstreamBuilds} of its upstream builds,
+         * when {@link DownstreamPassCondition#TRIM_DELETED_BUILDS} is set.
+         */
+        @Override
+        public void onDeleted(AbstractBuild<?,?> build) {
+            if (!TRIM_DELETED_BUILDS) {
+                return;
+            }
+            try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+                for (Map.Entry<String,List<Integer>> e : flattenUpstreamCauses(build).entrySet()) {
+                    AbstractProject<?,?> j = Jenkins.get().getItemByFullName(e.getKey(), AbstractProject.class);
+                    if (j == null) {
+                        continue;
+                    }
+                    for (int n : e.getValue()) {
+                        AbstractBuild<?,?> u = j.getBuildByNumber(n);
+                        PseudoDownstreamBuilds pdb = u != null ? u.getAction(PseudoDownstreamBuilds.class) : null;
+                        if (pdb != null && pdb.remove(build)) {
+                            try {
+                                DeferredBuildSaver.save(u);
+                            } catch (IOException ex) {
+                                LOGGER.log(Level.WARNING, "Failed to save " + u, ex);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Flattens the {@link UpstreamCause}s of the given build.
+         * The traversal is breadth-first, so the builds of a job, which triggered the build through several paths,
+         * are listed from the nearest one. The further ones are the fallbacks, in case the nearer ones have been deleted.
+         * It stops at {@link #MAX_CAUSE_DEPTH} levels and {@link #MAX_CAUSES} causes,
+         * which protects the completions from the huge cause trees of matrix and parameterized trigger jobs.
+         * @return Distinct upstream build numbers by the full name of the upstream job
+         */
+        static Map<String,List<Integer>> flattenUpstreamCauses(AbstractBuild<?,?> build) {
+            Map<String,List<Integer>> r = new HashMap<String,List<Integer>>();
+            List<Cause> level = build.getCauses();
+            int visited = 0;
+            for (int depth = 0; depth < MAX_CAUSE_DEPTH && !level.isEmpty(); depth++) {
+                List<Cause> next = new ArrayList<Cause>();
+                for (UpstreamCause uc : Util.filter(level, UpstreamCause.class)) {
+                    if (++visited > MAX_CAUSES) {
+                        LOGGER.log(Level.FINE, "Stopped flattening the upstream causes of {0} after {1} causes",
+                                new Object[] {build, MAX_CAUSES});
+                        return r;
+                    }
+                    List<Integer> numbers = r.computeIfAbsent(uc.getUpstreamProject(), k -> new ArrayList<Integer>(1));
+                    if (!numbers.contains(uc.getUpstreamBuild())) {
+                        numbers.add(uc.getUpstreamBuild());
+                    }
+                    next.addAll(uc.getUpstreamCauses());
+                }
+                level = next;
+            }
+            return r;
+        }
+
         /**
          * Called whenever some {@link JobPropertyImpl} changes to update downstream jobs.
          * @deprecated Caches are not being used anymore
@@ -343,29 +500,199 @@ public class DownstreamPassCondition extends PromotionCondition {
         }
     }
 
+    /**
+     * Maximum depth of the {@link UpstreamCause}s flattened by {@link RunListenerImpl#flattenUpstreamCauses(AbstractBuild)}.
+     */
+    private static final int MAX_CAUSE_DEPTH = SystemProperties.getInteger(DownstreamPassCondition.class.getName() + ".maxCauseDepth", 32);
+
+    /**
+     * Maximum number of the {@link UpstreamCause}s flattened by {@link RunListenerImpl#flattenUpstreamCauses(AbstractBuild)}.
+     */
+    private static final int MAX_CAUSES = SystemProperties.getInteger(DownstreamPassCondition.class.getName() + ".maxCauses", 1000);
+
+    /**
+     * Invalidates the resolved job lists when the jobs they may refer to change.
+     */
+    @Extension
+    public static final class ItemListenerImpl extends ItemListener {
+        @Override
+        public void onLoaded() {
+            JOB_LIST_GENERATION.incrementAndGet();
+        }
+
+        @Override
+        public void onCreated(Item item) {
+            // may resolve a name, which did not resolve before
+            JOB_LIST_GENERATION.incrementAndGet();
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            JOB_LIST_GENERATION.incrementAndGet();
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            JOB_LIST_GENERATION.incrementAndGet();
+        }
+    }
+
     /**
      * Remembers those downstream jobs that are not related by fingerprint but by the triggering relationship.
      * This is a weaker form of the relationship and less reliable, but often people don't understand
      * the notion of fingerprints, in which case this works.
+     *
+     * <p>
+     * The build numbers are grouped by the full name of the downstream job, each build is recorded once.
+     * Still persisted as the former list of {@link BuildPtr}s, so that the older versions of the plugin read it.
+     * The grouped form {@code <job name="folder/test">3,5</job>} is read as well.
+     * </p>
      */
     public static class PseudoDownstreamBuilds extends InvisibleAction {
-        final List<BuildPtr> builds = new ArrayList<BuildPtr>();
+        private static final int[] EMPTY = new int[0];
+
+        /**
+         * Ascending build numbers by the full name of the downstream job. Guarded by this.
+         */
+        private final Map<String,int[]> builds = new TreeMap<String,int[]>();
 
         public void add(AbstractBuild<?,?> run) {
-            builds.add(new BuildPtr(run));
+            add(run.getParent().getFullName(), run.getNumber());
+        }
+
+        synchronized boolean add(String job, int number) {
+            int[] numbers = builds.getOrDefault(job, EMPTY);
+            int i = Arrays.binarySearch(numbers, number);
+            if (i >= 0) {
+                return false;
+            }
+            i = -i - 1;
+            int[] r = new int[numbers.length + 1];
+            System.arraycopy(numbers, 0, r, 0, i);
+            r[i] = number;
+            System.arraycopy(numbers, i, r, i + 1, numbers.length - i);
+            builds.put(job, r);
+            return true;
+        }
+
+        /**
+         * Checks if the given build is recorded already.
+         */
+        public synchronized boolean contains(AbstractBuild<?,?> run) {
+            return Arrays.binarySearch(builds.getOrDefault(run.getParent().getFullName(), EMPTY), run.getNumber()) >= 0;
+        }
+
+        /**
+         * Forgets the given build.
+         * @return {@code false} if it has not been recorded
+         */
+        synchronized boolean remove(AbstractBuild<?,?> run) {
+            String job = run.getParent().getFullName();
+            int[] numbers = builds.getOrDefault(job, EMPTY);
+            int i = Arrays.binarySearch(numbers, run.getNumber());
+            if (i < 0) {
+                return false;
+            }
+            if (numbers.length == 1) {
+                builds.remove(job);
+                return true;
+            }
+            int[] r = new int[numbers.length - 1];
+            System.arraycopy(numbers, 0, r, 0, i);
+            System.arraycopy(numbers, i + 1, r, i, numbers.length - i - 1);
+            builds.put(job, r);
+            return true;
         }
 
         public List<AbstractBuild<?,?>> listBuilds(AbstractProject<?, ?> job) {
-            List<AbstractBuild<?,?>> list = new ArrayList<AbstractBuild<?,?>>();
-            for (BuildPtr b : builds) {
-                if (b.is(job)) {
-                    Run r = b.getRun();
-                    if (r instanceof AbstractBuild)
-                        // mainly null check, plus a defensive measure caused by a possible rename.
-                        list.add((AbstractBuild)r);
+            int[] numbers;
+            synchronized (this) {
+                numbers = builds.getOrDefault(job.getFullName(), EMPTY);
+            }
+            List<AbstractBuild<?,?>> list = new ArrayList<AbstractBuild<?,?>>(numbers.length);
+            for (int n : numbers) {
+                AbstractBuild<?,?> b = job.getBuildByNumber(n);
+                if (b != null) {
+                    list.add(b);
                 }
             }
             return list;
         }
+
+        /**
+         * Picked up by {@link hudson.util.XStream2} for this action.
+         */
+        public static final class ConverterImpl implements Converter {
+            @Override
+            public boolean canConvert(Class type) {
+                return type == PseudoDownstreamBuilds.class;
+            }
+
+            @Override
+            public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+                PseudoDownstreamBuilds pdb = (PseudoDownstreamBuilds) source;
+                writer.startNode("builds");
+                synchronized (pdb) {
+                    for (Map.Entry<String,int[]> e : pdb.builds.entrySet()) {
+                        for (int n : e.getValue()) {
+                            writer.startNode(BuildPtr.class.getName());
+                            writer.startNode("name");
+                            writer.setValue(e.getKey());
+                            writer.endNode();
+                            writer.startNode("number");
+                            writer.setValue(Integer.toString(n));
+                            writer.endNode();
+                            writer.endNode();
+                        }
+                    }
+                }
+                writer.endNode();
+            }
+
+            @Override
+            public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+                PseudoDownstreamBuilds pdb = new PseudoDownstreamBuilds();
+                while (reader.hasMoreChildren()) {
+                    reader.moveDown();
+                    if (reader.getNodeName().equals("job")) {
+                        String job = reader.getAttribute("name");
+                        for (String token : reader.getValue().split(",")) {
+                            if (job != null && !token.trim().isEmpty()) {
+                                pdb.add(job, Integer.parseInt(token.trim()));
+                            }
+                        }
+                    } else if (reader.getNodeName().equals("builds")) {
+                        // the List<BuildPtr> format, duplicates are dropped
+                        while (reader.hasMoreChildren()) {
+                            reader.moveDown();
+                            String job = null;
+                            String number = null;
+                            while (reader.hasMoreChildren()) {
+                                reader.moveDown();
+                                if (reader.getNodeName().equals("name")) {
+                                    job = reader.getValue();
+                                } else if (reader.getNodeName().equals("number")) {
+                                    number = reader.getValue();
+                                }
+                                reader.moveUp();
+                            }
+                            if (job != null && number != null) {
+                                pdb.add(job, Integer.parseInt(number.trim()));
+                            }
+                            reader.moveUp();
+                        }
+                    }
+                    reader.moveUp();
+                }
+                return pdb;
+            }
+        }
     }
+
+    /**
+     * Whether the deleted downstream builds are dropped from the {@link PseudoDownstreamBuilds} of their upstream builds.
+     */
+    private static final boolean TRIM_DELETED_BUILDS = SystemProperties.getBoolean(DownstreamPassCondition.class.getName() + ".trimDeletedBuilds", false);
+
+    private static final Logger LOGGER = Logger.getLogger(DownstreamPassCondition.class.getName());
 }
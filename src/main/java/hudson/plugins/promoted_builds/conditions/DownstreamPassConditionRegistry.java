@@ -0,0 +1,383 @@
+package hudson.plugins.promoted_builds.conditions;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.plugins.promoted_builds.JobPropertyImpl;
+import hudson.plugins.promoted_builds.PromotionCondition;
+import hudson.plugins.promoted_builds.PromotionProcess;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Reverse dependency registry for {@link DownstreamPassCondition}.
+ *
+ * <p>
+ * Maps the full names of downstream jobs to the (upstream job, promotion process) pairs
+ * that watch them, so that {@link DownstreamPassCondition.RunListenerImpl} only considers
+ * the affected processes instead of scanning every project in the system.
+ * </p>
+ * <p>
+ * Job names, which cannot be resolved at registration time, are kept by their short name.
+ * Job lists, which use variable expansion, go to a fallback bucket that is consulted for every completion.
+ * Candidates returned by the registry are always re-checked by {@link DownstreamPassCondition#contains}.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class DownstreamPassConditionRegistry {
+
+    private static final DownstreamPassConditionRegistry INSTANCE = new DownstreamPassConditionRegistry();
+
+    /**
+     * Downstream job full name to the watchers.
+     */
+    private final Map<String,Set<Watcher>> byDownstream = new HashMap<String,Set<Watcher>>();
+    /**
+     * Short name of a downstream job, which could not be resolved, to the watchers.
+     */
+    private final Map<String,Set<Watcher>> byUnresolvedName = new HashMap<String,Set<Watcher>>();
+    /**
+     * Watchers, which use variables in their job lists.
+     */
+    private final Set<Watcher> dynamic = new HashSet<Watcher>();
+    /**
+     * Upstream job full name to its current registration.
+     */
+    private final Map<String,Registration> byUpstream = new HashMap<String,Registration>();
+
+    private DownstreamPassConditionRegistry() {}
+
+    @NonNull
+    public static DownstreamPassConditionRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * (upstream job, promotion process) pair, which has a {@link DownstreamPassCondition}.
+     */
+    public static final class Watcher {
+        private final String upstream;
+        private final String process;
+
+        Watcher(String upstream, String process) {
+            this.upstream = upstream;
+            this.process = process;
+        }
+
+        /**
+         * @return Full name of the upstream job
+         */
+        public String getUpstream() {
+            return upstream;
+        }
+
+        /**
+         * @return Name of the promotion process of the upstream job
+         */
+        public String getProcess() {
+            return process;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Watcher)) {
+                return false;
+            }
+            Watcher that = (Watcher) o;
+            return upstream.equals(that.upstream) && process.equals(that.process);
+        }
+
+        @Override
+        public int hashCode() {
+            return upstream.hashCode() * 31 + process.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return upstream + "/" + process;
+        }
+    }
+
+    /**
+     * Everything a single upstream job contributes to the registry.
+     */
+    private static final class Registration {
+        private final Map<String,Set<Watcher>> downstreams = new HashMap<String,Set<Watcher>>();
+        private final Map<String,Set<Watcher>> unresolved = new HashMap<String,Set<Watcher>>();
+        private final Set<Watcher> dynamic = new HashSet<Watcher>();
+    }
+
+    /**
+     * (Re-)registers all the {@link DownstreamPassCondition}s of the given job.
+     * @param upstream Job, which owns the promotion processes
+     * @param property Promotion processes of the job
+     */
+    public void register(@NonNull AbstractProject<?,?> upstream, @NonNull JobPropertyImpl property) {
+        if (!property.isLoaded()) {
+            // processes with DownstreamPassConditions are never loaded lazily, nothing to watch
+            unregister(upstream.getFullName());
+            return;
+        }
+        // resolve outside of the lock, the registry never calls out while locked
+        Registration r = new Registration();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            for (PromotionProcess p : property.getItems()) {
+                Watcher w = new Watcher(upstream.getFullName(), p.getName());
+                for (PromotionCondition cond : p.conditions) {
+                    if (cond instanceof DownstreamPassCondition) {
+                        String jobs = ((DownstreamPassCondition) cond).getJobs();
+                        if (jobs == null) {
+                            continue;
+                        }
+                        if (jobs.contains("$")) {
+                            r.dynamic.add(w);
+                            continue;
+                        }
+                        for (String name : Util.tokenize(jobs, ",")) {
+                            name = name.trim();
+                            AbstractProject<?,?> job = Jenkins.get().getItem(name, upstream.getParent(), AbstractProject.class);
+                            if (job != null) {
+                                add(r.downstreams, job.getFullName(), w);
+                            } else {
+                                add(r.unresolved, name.substring(name.lastIndexOf('/') + 1), w);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        synchronized (this) {
+            remove(upstream.getFullName());
+            if (r.downstreams.isEmpty() && r.unresolved.isEmpty() && r.dynamic.isEmpty()) {
+                return;
+            }
+            byUpstream.put(upstream.getFullName(), r);
+            addAll(byDownstream, r.downstreams);
+            addAll(byUnresolvedName, r.unresolved);
+            dynamic.addAll(r.dynamic);
+        }
+    }
+
+    /**
+     * Removes all the watchers of the given upstream job.
+     * @param upstream Full name of the upstream job
+     */
+    public synchronized void unregister(@NonNull String upstream) {
+        remove(upstream);
+    }
+
+    private void remove(String upstream) {
+        Registration r = byUpstream.remove(upstream);
+        if (r == null) {
+            return;
+        }
+        removeAll(byDownstream, r.downstreams);
+        removeAll(byUnresolvedName, r.unresolved);
+        dynamic.removeAll(r.dynamic);
+    }
+
+    /**
+     * Gets the watchers, which may be interested in completions of the given job.
+     * @param downstream Downstream job
+     * @return Candidate watchers, which still need to be checked against the conditions
+     */
+    @NonNull
+    public synchronized Set<Watcher> getWatchers(@NonNull AbstractProject<?,?> downstream) {
+        Set<Watcher> r = new LinkedHashSet<Watcher>(dynamic);
+        Set<Watcher> s = byDownstream.get(downstream.getFullName());
+        if (s != null) {
+            r.addAll(s);
+        }
+        s = byUnresolvedName.get(downstream.getName());
+        if (s != null) {
+            r.addAll(s);
+        }
+        return r;
+    }
+
+    /**
+     * Gets the number of the registered upstream jobs.
+     */
+    public synchronized int size() {
+        return byUpstream.size();
+    }
+
+    private synchronized Set<String> getUpstreams(@CheckForNull Set<Watcher> watchers) {
+        Set<String> r = new HashSet<String>();
+        if (watchers != null) {
+            for (Watcher w : watchers) {
+                r.add(w.upstream);
+            }
+        }
+        return r;
+    }
+
+    private synchronized Set<String> getUpstreamsOfDownstream(String fullName) {
+        return getUpstreams(byDownstream.get(fullName));
+    }
+
+    private synchronized Set<String> getUpstreamsOfUnresolved(String name) {
+        return getUpstreams(byUnresolvedName.get(name));
+    }
+
+    private synchronized boolean isRegistered(String upstream) {
+        return byUpstream.containsKey(upstream);
+    }
+
+    /**
+     * Re-resolves the registration of the given upstream job from its current configuration.
+     */
+    private void refresh(String upstream) {
+        AbstractProject<?,?> job;
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            job = Jenkins.get().getItemByFullName(upstream, AbstractProject.class);
+        }
+        JobPropertyImpl jp = job != null ? job.getProperty(JobPropertyImpl.class) : null;
+        if (jp == null) {
+            unregister(upstream);
+        } else {
+            register(job, jp);
+        }
+    }
+
+    private void refreshAll(Collection<String> upstreams) {
+        for (String upstream : upstreams) {
+            refresh(upstream);
+        }
+    }
+
+    /**
+     * Rebuilds the whole registry.
+     */
+    private void rebuild() {
+        List<AbstractProject> jobs;
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            jobs = Jenkins.get().getAllItems(AbstractProject.class);
+        }
+        synchronized (this) {
+            byDownstream.clear();
+            byUnresolvedName.clear();
+            dynamic.clear();
+            byUpstream.clear();
+        }
+        for (AbstractProject<?,?> job : jobs) {
+            JobPropertyImpl jp = job.getProperty(JobPropertyImpl.class);
+            if (jp != null) {
+                register(job, jp);
+            }
+        }
+        LOGGER.log(Level.FINE, "Registered DownstreamPassConditions of {0} jobs", size());
+    }
+
+    private static void add(Map<String,Set<Watcher>> map, String key, Watcher w) {
+        Set<Watcher> s = map.get(key);
+        if (s == null) {
+            map.put(key, s = new HashSet<Watcher>());
+        }
+        s.add(w);
+    }
+
+    private static void addAll(Map<String,Set<Watcher>> map, Map<String,Set<Watcher>> entries) {
+        for (Map.Entry<String,Set<Watcher>> e : entries.entrySet()) {
+            for (Watcher w : e.getValue()) {
+                add(map, e.getKey(), w);
+            }
+        }
+    }
+
+    private static void removeAll(Map<String,Set<Watcher>> map, Map<String,Set<Watcher>> entries) {
+        for (Map.Entry<String,Set<Watcher>> e : entries.entrySet()) {
+            Set<Watcher> s = map.get(e.getKey());
+            if (s != null) {
+                s.removeAll(e.getValue());
+                if (s.isEmpty()) {
+                    map.remove(e.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the registry in sync with created, renamed and deleted jobs.
+     */
+    @Extension
+    public static final class ItemListenerImpl extends ItemListener {
+        @Override
+        public void onLoaded() {
+            INSTANCE.rebuild();
+        }
+
+        @Override
+        public void onCreated(Item item) {
+            if (item instanceof AbstractProject) {
+                INSTANCE.refreshAll(INSTANCE.getUpstreamsOfUnresolved(item.getName()));
+            }
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            if (!(item instanceof AbstractProject)) {
+                return;
+            }
+            String fullName = item.getFullName();
+            INSTANCE.unregister(fullName);
+            Set<String> upstreams = INSTANCE.getUpstreamsOfDownstream(fullName);
+            upstreams.remove(fullName);
+            INSTANCE.refreshAll(upstreams);
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            if (!(item instanceof AbstractProject)) {
+                return;
+            }
+            if (INSTANCE.isRegistered(oldFullName)) {
+                INSTANCE.unregister(oldFullName);
+                INSTANCE.refresh(newFullName);
+            }
+            Set<String> upstreams = INSTANCE.getUpstreamsOfDownstream(oldFullName);
+            upstreams.addAll(INSTANCE.getUpstreamsOfUnresolved(item.getName()));
+            INSTANCE.refreshAll(upstreams);
+        }
+    }
+
+    /**
+     * Picks up changes of the conditions, which are saved with the {@link PromotionProcess}.
+     */
+    @Extension
+    public static final class SaveableListenerImpl extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof PromotionProcess) {
+                JobPropertyImpl jp = ((PromotionProcess) o).getParent();
+                if (jp != null && jp.getOwner() != null) {
+                    INSTANCE.register(jp.getOwner(), jp);
+                }
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(DownstreamPassConditionRegistry.class.getName());
+}
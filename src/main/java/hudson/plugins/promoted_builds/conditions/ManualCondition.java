@@ -10,10 +10,12 @@ import hudson.model.InvisibleAction;
 import hudson.model.ParameterDefinition;
 import hudson.model.ParameterValue;
 import hudson.model.User;
+import hudson.plugins.promoted_builds.DeferredBuildSaver;
 import hudson.plugins.promoted_builds.PromotionPermissionHelper;
 import hudson.plugins.promoted_builds.PromotionBadge;
 import hudson.plugins.promoted_builds.PromotionCondition;
 import hudson.plugins.promoted_builds.PromotionConditionDescriptor;
+import hudson.plugins.promoted_builds.PromotionConditionEvaluator;
 import hudson.plugins.promoted_builds.Promotion;
 import hudson.plugins.promoted_builds.PromotionProcess;
 
@@ -168,7 +170,8 @@ public class ManualCondition extends PromotionCondition {
             // add approval to build
             ManualApproval approval=new ManualApproval(promotionProcess.getName(), paramValues);
             build.addAction(approval);
-            build.save();
+            DeferredBuildSaver.save(build);
+            PromotionConditionEvaluator.invalidate(build);
 
             // check for promotion
             return promotionProcess.considerPromotion2(build, approval);
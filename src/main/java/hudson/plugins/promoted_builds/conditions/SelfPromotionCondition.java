@@ -33,10 +33,10 @@ import hudson.plugins.promoted_builds.JobPropertyImpl;
 import hudson.plugins.promoted_builds.PromotionBadge;
 import hudson.plugins.promoted_builds.PromotionCondition;
 import hudson.plugins.promoted_builds.PromotionConditionDescriptor;
+import hudson.plugins.promoted_builds.PromotionConsiderationQueue;
 import hudson.plugins.promoted_builds.PromotionProcess;
 import org.kohsuke.stapler.DataBoundConstructor;
 
-import java.io.IOException;
 
 /**
  * {@link PromotionCondition} that promotes a build as soon as it's done.
@@ -86,12 +86,9 @@ public class SelfPromotionCondition extends PromotionCondition {
                 for (PromotionProcess p : jp.getItems()) {
                     for (PromotionCondition cond : p.conditions) {
                         if (cond instanceof SelfPromotionCondition) {
-                            try {
-                                p.considerPromotion2(build);
-                                break; // move on to the next process
-                            } catch (IOException e) {
-                                e.printStackTrace(listener.error("Failed to promote a build"));
-                            }
+                            // evaluated off the executor of the build, as the user running it
+                            PromotionConsiderationQueue.submit(p, build, build, listener);
+                            break; // move on to the next process
                         }
                     }
                 }
@@ -100,13 +100,13 @@ public class PromotedBuildParameterDefinition extends SimpleParameterDefinition
 
     @Override
     public PromotedBuildParameterValue getDefaultParameterValue() {
-        final List builds = getBuilds();
+        final List<Run<?,?>> builds = getRuns(getCurrentItem(), 1);
 
         if (builds.isEmpty()) {
             return null;
         }
 
-        return createValue(((Run) builds.get(0)).getExternalizableId());
+        return createValue(builds.get(0).getExternalizableId());
     }
 
     @Override
@@ -143,12 +143,18 @@ public class PromotedBuildParameterDefinition extends SimpleParameterDefinition
     @NonNull
     @Deprecated
     public List getBuilds() {
-        // Try to get ancestor from the object, otherwise pass null and disable the relative addressing
+        return getRuns(getCurrentItem());
+    }
+
+    /**
+     * Try to get ancestor from the object, otherwise return null and disable the relative addressing
+     */
+    @CheckForNull
+    private static Item getCurrentItem() {
         final StaplerRequest2 currentRequest = Stapler.getCurrentRequest2();
-        final Item item = currentRequest != null ? currentRequest.findAncestorObject(Item.class) : null;
-        return getRuns(item);
+        return currentRequest != null ? currentRequest.findAncestorObject(Item.class) : null;
     }
-    
+
     /**
      * Gets a list of promoted builds for the project.
      * @param base Base item for the relative addressing
@@ -158,6 +164,19 @@ public class PromotedBuildParameterDefinition extends SimpleParameterDefinition
      */
     @NonNull
     public List<Run<?,?>> getRuns(@CheckForNull Item base) {
+        return getRuns(base, 0);
+    }
+    
+    /**
+     * Gets a list of promoted builds for the project, newest first.
+     * The builds are looked up in the promotion index of the project instead of loading all its builds.
+     * @param base Base item for the relative addressing
+     * @param limit Maximum number of builds to return. {@code 0} or less means no limit
+     * @return List of {@link AbstractBuild}s, which have been promoted.
+     *         May return an empty list if {@link Jenkins} instance is not ready
+     */
+    @NonNull
+    public List<Run<?,?>> getRuns(@CheckForNull Item base, int limit) {
         final List<Run<?,?>> runs = new ArrayList<Run<?,?>>();
         final Jenkins jenkins = Jenkins.getInstanceOrNull();
         if (jenkins == null) {
@@ -171,15 +190,21 @@ public class PromotedBuildParameterDefinition extends SimpleParameterDefinition
         }
 
         PromotedProjectAction promotedProjectAction  = job.getAction(PromotedProjectAction.class);
-        if (promotedProjectAction == null) {
+        JobPropertyImpl property = job.getProperty(JobPropertyImpl.class);
+        if (promotedProjectAction == null || property == null) {
             return runs;
         }
 
-        for (Run<?,?> run : job.getBuilds()) {
-            List<PromotedBuildAction> actions = run.getActions(PromotedBuildAction.class);
-            for (PromotedBuildAction buildAction : actions) {
-                if (buildAction.contains(promotionProcessName)) {
-                    runs.add(run);
+        final List<Integer> numbers = property.getPromotionIndex().getBuildNumbers(promotionProcessName);
+        for (int i = numbers.size() - 1; i >= 0; i--) {
+            Run<?,?> run = job.getBuildByNumber(numbers.get(i));
+            if (run == null) {
+                continue;
+            }
+            PromotedBuildAction buildAction = run.getAction(PromotedBuildAction.class);
+            if (buildAction != null && buildAction.contains(promotionProcessName)) {
+                runs.add(run);
+                if (runs.size() == limit) {
                     break;
                 }
             }
@@ -0,0 +1,54 @@
+package hudson.plugins.promoted_builds;
+
+import jenkins.benchmark.jmh.BenchmarkFinder;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs all the {@link jenkins.benchmark.jmh.JmhBenchmark}s of the plugin.
+ *
+ * <p>
+ * Not picked up by the regular test run, use {@code mvn test -Dbenchmark}, which activates the {@code jmh-benchmark} profile
+ * of the parent POM.
+ * The sizes of the synthetic data can be overridden with comma-separated lists,
+ * e.g. {@code -Dbenchmark.processes=10,1000 -Dbenchmark.statuses=10 -Dbenchmark.badges=1}.
+ * The results are written to {@code target/jmh-report.json}.
+ * </p>
+ */
+class BenchmarkRunner {
+
+    private static final String[] PARAMS = {"processes", "statuses", "badges"};
+
+    @Test
+    void runJmhBenchmarks() throws Exception {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .mode(Mode.AverageTime)
+                .warmupIterations(2)
+                .measurementIterations(5)
+                .timeUnit(TimeUnit.MICROSECONDS)
+                .threads(1)
+                .forks(1)
+                // read once by the DeferredBuildSaver, so it has to be set before the forked JVM starts Jenkins
+                .jvmArgsAppend("-D" + DeferredBuildSaver.class.getName() + ".delayMillis=0")
+                .shouldFailOnError(true)
+                .shouldDoGC(true)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-report.json");
+
+        for (String param : PARAMS) {
+            String values = System.getProperty("benchmark." + param);
+            if (values != null && !values.trim().isEmpty()) {
+                options.param(param, values.trim().split("\\s*,\\s*"));
+            }
+        }
+
+        new BenchmarkFinder(getClass()).findBenchmarks(options);
+        new Runner(options.build()).run();
+    }
+}
@@ -24,6 +24,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import static hudson.plugins.promoted_builds.util.ItemListenerHelper.fireItemListeners;
+import static hudson.plugins.promoted_builds.util.PromotionQueueHelper.waitUntilNoActivity;
 import static org.junit.jupiter.api.Assertions.*;
 
 @WithJenkins
@@ -46,6 +47,7 @@ class KeepBuildForeverActionTest {
         assertFalse(upBuild.isKeepLog());
 
         j.assertBuildStatusSuccess(downJob.scheduleBuild2(0).get());
+        waitUntilNoActivity(j);
         waitForBuild(promotionJob, 1);
         assertTrue(upBuild.isKeepLog());
     }
@@ -68,6 +70,7 @@ class KeepBuildForeverActionTest {
         assertFalse(upBuild.isKeepLog());
 
         j.assertBuildStatusSuccess(downJob.scheduleBuild2(0).get());
+        waitUntilNoActivity(j);
         waitForBuild(promotionJob, 1);
         assertFalse(upBuild.isKeepLog());
     }
@@ -89,6 +92,7 @@ class KeepBuildForeverActionTest {
         assertFalse(upBuild.isKeepLog());
 
         j.assertBuildStatusSuccess(downJob.scheduleBuild2(0).get());
+        waitUntilNoActivity(j);
         waitForBuild(promotionJob, 1);
         assertTrue(upBuild.isKeepLog());
     }
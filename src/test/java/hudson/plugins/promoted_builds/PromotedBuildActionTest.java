@@ -2,17 +2,27 @@ package hudson.plugins.promoted_builds;
 
 import org.htmlunit.html.HtmlImage;
 import org.htmlunit.html.HtmlPage;
+import hudson.XmlFile;
 import hudson.model.Cause.UserCause;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.util.CopyOnWriteList;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -53,4 +63,146 @@ class PromotedBuildActionTest {
             }
         }
     }
+
+    @Test
+    void testPromotionStateIsSavedOnFlush(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        JobPropertyImpl base = new JobPropertyImpl(p);
+        p.addProperty(base);
+        PromotionProcess foo = base.addProcess("foo");
+
+        FreeStyleBuild b1 = j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        foo.promote(b1, new UserCause(), new ManualPromotionBadge());
+        j.waitUntilNoActivity();
+
+        DeferredBuildSaver.flush();
+        assertEquals(0, DeferredBuildSaver.getPendingCount());
+        String xml = new XmlFile(new File(b1.getRootDir(), "build.xml")).asString();
+        assertTrue(xml.contains(xmlName(PromotedBuildAction.class)), xml);
+        assertFalse(xml.contains(xmlName(Status.class)), "statuses are not stored in build.xml");
+        String statuses = new XmlFile(new File(b1.getRootDir(), PromotedBuildAction.FILE_NAME)).asString();
+        assertTrue(statuses.contains(xmlName(Status.class)), statuses);
+
+        // statuses are loaded lazily from their own file
+        b1.reload();
+        PromotedBuildAction a = b1.getAction(PromotedBuildAction.class);
+        assertEquals(1, a.getPromotions().size());
+        assertSame(a, a.getPromotion("foo").getParent());
+
+        DeferredBuildSaver.save(b1);
+        b1.delete();
+        assertEquals(0, DeferredBuildSaver.getPendingCount(), "the pending save is flushed before the deletion");
+        DeferredBuildSaver.flush();
+        assertFalse(b1.getRootDir().exists(), "a deleted build is not recreated");
+    }
+
+    @Test
+    void testSavesAfterShutdownFlushAreWrittenRightAway(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        FreeStyleBuild b1 = j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        File xml = new File(b1.getRootDir(), "build.xml");
+        assertTrue(xml.delete());
+
+        DeferredBuildSaver.flushOnShutdown();
+        try {
+            DeferredBuildSaver.save(b1);
+            assertEquals(0, DeferredBuildSaver.getPendingCount());
+            assertTrue(xml.exists(), "nothing would flush it after the shutdown flush");
+        } finally {
+            DeferredBuildSaver.deferOnStartup();
+        }
+    }
+
+    @Test
+    void testLegacyStatusesAreReadInPlace(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        JobPropertyImpl base = new JobPropertyImpl(p);
+        p.addProperty(base);
+        PromotionProcess foo = base.addProcess("foo");
+        PromotionProcess bar = base.addProcess("bar");
+
+        FreeStyleBuild b1 = j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        foo.promote(b1, new UserCause(), new ManualPromotionBadge());
+        j.waitUntilNoActivity();
+        DeferredBuildSaver.flush();
+
+        // record the statuses the way the older versions did
+        PromotedBuildAction a = b1.getAction(PromotedBuildAction.class);
+        Field statuses = PromotedBuildAction.class.getDeclaredField("statuses");
+        statuses.setAccessible(true);
+        CopyOnWriteList<Status> legacy = new CopyOnWriteList<Status>(a.getPromotions());
+        statuses.set(a, legacy);
+        b1.save();
+        File file = new File(b1.getRootDir(), PromotedBuildAction.FILE_NAME);
+        assertTrue(file.delete());
+        File buildXml = new File(b1.getRootDir(), "build.xml");
+        long lastModified = buildXml.lastModified();
+        assertTrue(new XmlFile(buildXml).asString().contains(xmlName(Status.class)));
+
+        b1.reload();
+        a = b1.getAction(PromotedBuildAction.class);
+        assertEquals(1, a.getPromotions().size());
+        assertSame(a, a.getPromotion("foo").getParent());
+
+        // nothing is written by loading or reading them
+        DeferredBuildSaver.flush();
+        assertFalse(file.exists());
+        assertEquals(lastModified, buildXml.lastModified());
+
+        // promotions.xml once they change, then build.xml drops them
+        bar.promote(b1, new UserCause(), new ManualPromotionBadge());
+        j.waitUntilNoActivity();
+        DeferredBuildSaver.flush();
+        assertTrue(file.exists());
+        DeferredBuildSaver.flush();
+        String xml = new XmlFile(buildXml).asString();
+        assertFalse(xml.contains(xmlName(Status.class)), xml);
+
+        b1.reload();
+        assertEquals(2, b1.getAction(PromotedBuildAction.class).getPromotions().size());
+    }
+
+    @Test
+    void testPromotionAttemptsKeepTheirFormat(JenkinsRule j) throws Exception {
+        String tag = xmlName(PromotionAttempts.class);
+        // format of the older build records, still written for the downgrades
+        String legacy = "<" + tag + ">\n  <int>1</int>\n  <int>3</int>\n</" + tag + ">";
+        PromotionAttempts attempts = (PromotionAttempts) Run.XSTREAM2.fromXML(legacy);
+        assertArrayEquals(new int[] {1, 3}, attempts.toArray());
+        assertEquals(legacy, Run.XSTREAM2.toXML(attempts));
+
+        attempts.add(4);
+        String xml = Run.XSTREAM2.toXML(attempts);
+        assertArrayEquals(new int[] {1, 3, 4}, ((PromotionAttempts) Run.XSTREAM2.fromXML(xml)).toArray());
+        assertArrayEquals(new int[] {1, 3, 4}, ((PromotionAttempts) Run.XSTREAM2.fromXML("<" + tag + ">1,3,4</" + tag + ">")).toArray());
+        assertTrue(((PromotionAttempts) Run.XSTREAM2.fromXML("<" + tag + "/>")).isEmpty());
+    }
+
+    @Test
+    void testLastAttemptIsRecorded(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        JobPropertyImpl base = new JobPropertyImpl(p);
+        p.addProperty(base);
+        PromotionProcess foo = base.addProcess("foo");
+
+        FreeStyleBuild b1 = j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        foo.promote(b1, new UserCause(), new ManualPromotionBadge());
+        j.waitUntilNoActivity();
+
+        Status s = b1.getAction(PromotedBuildAction.class).getPromotion("foo");
+        Promotion promotion = foo.getBuildByNumber(1);
+        assertEquals(1, s.getLastAttemptNumber());
+        assertEquals(Result.SUCCESS, s.getLastAttemptResult());
+        assertEquals(promotion.getTimeInMillis(), s.getLastAttemptTimestamp());
+        assertFalse(s.isLastAnError());
+
+        promotion.delete();
+        assertEquals(-1, s.getLastAttemptNumber());
+        assertNull(s.getLastAttemptResult());
+        assertFalse(s.isLastAnError());
+    }
+
+    private static String xmlName(Class<?> c) {
+        return c.getName().replace("_", "__");
+    }
 }
@@ -32,6 +32,7 @@ import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
+import static hudson.plugins.promoted_builds.util.PromotionQueueHelper.waitUntilNoActivity;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -53,7 +54,7 @@ class PromotedBuildRebuildParameterProviderTest {
 
         // build it
         FreeStyleBuild b1 = j.assertBuildStatusSuccess(p1.scheduleBuild2(0));
-        j.waitUntilNoActivity();
+        waitUntilNoActivity(j);
 
         // verify that promotion happened
         assertSame(proc.getBuilds().getLastBuild().getTargetBuildOrFail(), b1);
@@ -83,7 +84,7 @@ class PromotedBuildRebuildParameterProviderTest {
         HtmlPage buildPage = wc.getPage(b2);
         HtmlPage rebuildConfigPage = buildPage.getAnchorByText("Rebuild").click();
         j.submit(rebuildConfigPage.getFormByName("config"));
-        j.waitUntilNoActivity();
+        waitUntilNoActivity(j);
 
         // validate presence of parameter
         FreeStyleBuild rebuild = p2.getLastBuild();
@@ -0,0 +1,156 @@
+package hudson.plugins.promoted_builds;
+
+import hudson.BulkChange;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.FreeStyleProject;
+import hudson.plugins.promoted_builds.conditions.SelfPromotionBadge;
+import hudson.plugins.promoted_builds.conditions.SelfPromotionCondition;
+import hudson.plugins.promoted_builds.conditions.UpstreamPromotionCondition;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhJenkinsState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks of the promotion condition evaluation and of the {@link PromotedBuildAction} lookups.
+ *
+ * <p>
+ * Runs against a synthetic {@link PromotedBuildAction}/{@link Status} graph attached to a real completed build.
+ * </p>
+ *
+ * @see BenchmarkRunner
+ */
+@JmhBenchmark
+public class PromotionConditionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Graph extends JmhJenkinsState {
+        /**
+         * Number of the {@link PromotionProcess}es defined for the job.
+         */
+        @Param({"10", "100"})
+        public int processes;
+
+        /**
+         * Number of the successful {@link Status}es recorded on the build, capped by {@link #processes}.
+         */
+        @Param({"10", "100"})
+        public int statuses;
+
+        /**
+         * Number of the badges of every {@link Status}.
+         */
+        @Param({"1", "5"})
+        public int badges;
+
+        File rootDir;
+        AbstractBuild<?,?> build;
+        PromotedBuildAction action;
+        PromotionProcess target;
+        PromotionProcess last;
+        PromotionProcess missing;
+        UpstreamPromotionCondition upstream;
+
+        @Override
+        public void setup() throws Exception {
+            FreeStyleProject project = getJenkins().createProject(FreeStyleProject.class, "upstream");
+            build = project.scheduleBuild2(0).get();
+
+            rootDir = Files.createTempDirectory("promoted-builds-benchmark").toFile();
+            FakeParent parent = new FakeParent(rootDir);
+
+            List<PromotionProcess> all = new ArrayList<PromotionProcess>();
+            for (int i = 0; i < processes; i++) {
+                all.add(new PromotionProcess(parent, "process-" + i));
+            }
+            last = all.get(all.size() - 1);
+            missing = new PromotionProcess(parent, "missing");
+
+            Field promotion = Status.class.getDeclaredField("promotion");
+            promotion.setAccessible(true);
+            List<String> required = new ArrayList<String>();
+            for (int i = 0; i < Math.min(statuses, processes); i++) {
+                List<PromotionBadge> b = new ArrayList<PromotionBadge>();
+                for (int j = 0; j < badges; j++) {
+                    b.add(new SelfPromotionBadge());
+                }
+                Status s = new Status(all.get(i), b);
+                promotion.setInt(s, i + 1);
+                if (action == null) {
+                    action = new PromotedBuildAction(build, s);
+                    build.addAction(action);
+                } else {
+                    // nothing is written to the disk while in the bulk change, the saves are not deferred by the BenchmarkRunner
+                    BulkChange bc = new BulkChange(action);
+                    try {
+                        action.add(s);
+                    } finally {
+                        bc.abort();
+                    }
+                }
+                required.add(s.getName());
+            }
+
+            // every status has to be visited
+            upstream = new UpstreamPromotionCondition(String.join(",", required));
+            target = new PromotionProcess(parent, "target");
+            BulkChange bc = new BulkChange(target);
+            try {
+                target.conditions.add(new SelfPromotionCondition(false));
+                target.conditions.add(upstream);
+            } finally {
+                bc.abort();
+            }
+        }
+
+        @Override
+        public void tearDown() {
+            try {
+                Util.deleteRecursive(rootDir);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Benchmark
+    public Status isMet(Graph g) {
+        return g.target.isMet(g.build);
+    }
+
+    @Benchmark
+    public List<PromotionBadge> getMetQualifications(Graph g) {
+        return g.target.getMetQualifications(g.build);
+    }
+
+    @Benchmark
+    public PromotionBadge upstreamPromotionConditionIsMet(Graph g) {
+        return g.upstream.isMet(g.target, g.build);
+    }
+
+    @Benchmark
+    public boolean containsLastProcess(Graph g) {
+        return g.action.contains(g.last);
+    }
+
+    @Benchmark
+    public boolean containsMissingProcess(Graph g) {
+        return g.action.contains(g.missing);
+    }
+
+    @Benchmark
+    public Status getPromotionByName(Graph g) {
+        return g.action.getPromotion(g.last.getName());
+    }
+}
@@ -14,6 +14,7 @@ import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 import java.util.ArrayList;
 import java.util.List;
 
+import static hudson.plugins.promoted_builds.util.PromotionQueueHelper.waitUntilNoActivity;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -45,7 +46,7 @@ class PromotionConfigFilesTest {
         r.assertBuildStatusSuccess(p.scheduleBuild2(0));
         // internally, the promotion is still an asynchronous process. It just happens
         // right away after the build is complete.
-        Thread.sleep(1000);
+        waitUntilNoActivity(r);
 
         Promotion pb = promo1.getBuilds().iterator().next();
         assertEquals(Result.SUCCESS, pb.getResult());
@@ -0,0 +1,196 @@
+package hudson.plugins.promoted_builds;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Run;
+import hudson.plugins.promoted_builds.conditions.SelfPromotionCondition;
+import hudson.plugins.promoted_builds.parameters.PromotedBuildParameterDefinition;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static hudson.plugins.promoted_builds.util.PromotionQueueHelper.waitUntilNoActivity;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@WithJenkins
+class PromotionIndexTest {
+
+    @Test
+    void promotionsAreServedFromIndex(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        JobPropertyImpl property = new JobPropertyImpl(p);
+        p.addProperty(property);
+        PromotionProcess promo = property.addProcess("promo");
+        promo.conditions.add(new SelfPromotionCondition(false));
+
+        FreeStyleBuild b1 = j.buildAndAssertSuccess(p);
+        FreeStyleBuild b2 = j.buildAndAssertSuccess(p);
+        waitUntilNoActivity(j);
+
+        DeferredBuildSaver.flush();
+        assertTrue(new File(property.getRootDir(), PromotionIndex.FILE_NAME).exists());
+        assertEquals(Arrays.asList(b1.getNumber(), b2.getNumber()), property.getPromotionIndex().getBuildNumbers("promo"));
+
+        PromotedProjectAction action = p.getAction(PromotedProjectAction.class);
+        List<Promotion> promotions = action.getPromotions(promo);
+        assertEquals(2, promotions.size());
+        assertSame(b2, promotions.get(0).getTargetBuild());
+        assertSame(b1, promotions.get(1).getTargetBuild());
+        assertEquals(promotions.get(0), action.getLatest(promo));
+
+        b1.delete();
+        assertEquals(Arrays.asList(b2.getNumber()), property.getPromotionIndex().getBuildNumbers("promo"));
+        assertEquals(1, action.getPromotions(promo).size());
+    }
+
+    @Test
+    void summaryPointsToLatestPromotion(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        JobPropertyImpl property = new JobPropertyImpl(p);
+        p.addProperty(property);
+        PromotionProcess promo = property.addProcess("promo");
+        promo.conditions.add(new SelfPromotionCondition(false));
+        PromotionProcess other = property.addProcess("other");
+
+        PromotedProjectAction action = p.getAction(PromotedProjectAction.class);
+        assertNull(action.getSummary(promo));
+
+        j.buildAndAssertSuccess(p);
+        FreeStyleBuild b2 = j.buildAndAssertSuccess(p);
+        waitUntilNoActivity(j);
+
+        PromotionSummary summary = action.getSummary(promo);
+        assertEquals(b2.getNumber(), summary.getBuildNumber());
+        assertSame(b2, summary.getTarget());
+        assertEquals(action.getLatest(promo).getNumber(), summary.getPromotionNumber());
+        assertFalse(summary.isLastAnError());
+        assertNull(action.getSummary(other));
+
+        b2.delete();
+        assertEquals(1, action.getSummary(promo).getBuildNumber());
+    }
+
+    @Test
+    void indexIsRebuiltWhenMissing(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        JobPropertyImpl property = new JobPropertyImpl(p);
+        p.addProperty(property);
+        PromotionProcess promo = property.addProcess("promo");
+        promo.conditions.add(new SelfPromotionCondition(false));
+
+        FreeStyleBuild b = j.buildAndAssertSuccess(p);
+        waitUntilNoActivity(j);
+
+        File file = new File(property.getRootDir(), PromotionIndex.FILE_NAME);
+        DeferredBuildSaver.flush();
+        assertTrue(file.delete());
+        assertFalse(file.exists());
+
+        PromotionIndex index = PromotionIndex.load(property);
+        DeferredBuildSaver.flush();
+        assertTrue(file.exists());
+        assertEquals(Arrays.asList(b.getNumber()), index.getBuildNumbers("promo"));
+        assertEquals(promo.getBuilds().size(), index.getPromotionNumbers("promo").size());
+    }
+
+    @Test
+    void staleIndexIsRebuilt(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        JobPropertyImpl property = new JobPropertyImpl(p);
+        p.addProperty(property);
+        PromotionProcess promo = property.addProcess("promo");
+        promo.conditions.add(new SelfPromotionCondition(false));
+
+        FreeStyleBuild b1 = j.buildAndAssertSuccess(p);
+        waitUntilNoActivity(j);
+        DeferredBuildSaver.flush();
+        File file = new File(property.getRootDir(), PromotionIndex.FILE_NAME);
+        byte[] stale = Files.readAllBytes(file.toPath());
+        assertEquals(Arrays.asList(b1.getNumber()), PromotionIndex.load(property).getBuildNumbers("promo"));
+
+        FreeStyleBuild b2 = j.buildAndAssertSuccess(p);
+        waitUntilNoActivity(j);
+        DeferredBuildSaver.flush();
+        // as if the last save had been lost, or an older version had promoted b2
+        Files.write(file.toPath(), stale);
+
+        PromotionIndex index = PromotionIndex.load(property);
+        assertEquals(Arrays.asList(b1.getNumber(), b2.getNumber()), index.getBuildNumbers("promo"));
+        assertEquals(promo.getBuilds().size(), index.getPromotionNumbers("promo").size());
+    }
+
+    @Test
+    void permalinkIsResolvedFromIndex(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        JobPropertyImpl property = new JobPropertyImpl(p);
+        p.addProperty(property);
+        PromotionProcess promo = property.addProcess("promo");
+        promo.conditions.add(new SelfPromotionCondition(false));
+        PromotionProcess other = property.addProcess("other");
+
+        FreeStyleBuild b1 = j.buildAndAssertSuccess(p);
+        FreeStyleBuild b2 = j.buildAndAssertSuccess(p);
+        waitUntilNoActivity(j);
+
+        assertSame(b2, promo.asPermalink().resolve(p));
+        assertNull(other.asPermalink().resolve(p));
+
+        b2.delete();
+        assertSame(b1, promo.asPermalink().resolve(p));
+    }
+
+    @Test
+    void promotedBuildParameterUsesIndex(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject("promojob");
+        JobPropertyImpl property = new JobPropertyImpl(p);
+        p.addProperty(property);
+        PromotionProcess promo = property.addProcess("promo");
+        promo.conditions.add(new SelfPromotionCondition(false));
+
+        FreeStyleBuild b1 = j.buildAndAssertSuccess(p);
+        FreeStyleBuild b2 = j.buildAndAssertSuccess(p);
+        FreeStyleBuild b3 = j.buildAndAssertSuccess(p);
+        waitUntilNoActivity(j);
+
+        PromotedBuildParameterDefinition d = new PromotedBuildParameterDefinition("var", "promojob", "promo", null);
+        assertEquals(Arrays.<Run<?,?>>asList(b3, b2, b1), d.getRuns(null));
+        assertEquals(Arrays.<Run<?,?>>asList(b3, b2), d.getRuns(null, 2));
+        assertEquals(b3.getExternalizableId(), d.getDefaultParameterValue().getRunId());
+
+        b3.delete();
+        assertEquals(b2.getExternalizableId(), d.getDefaultParameterValue().getRunId());
+    }
+
+    @Test
+    void entriesFollowProcessRenamesAndDeletions(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        JobPropertyImpl property = new JobPropertyImpl(p);
+        p.addProperty(property);
+        PromotionProcess promo = property.addProcess("promo");
+        PromotionProcess other = property.addProcess("other");
+        PromotionIndex index = property.getPromotionIndex();
+        index.onQualified("promo", 1);
+        index.onQualified("other", 2);
+
+        promo.renameTo("renamed");
+        assertTrue(index.getBuildNumbers("promo").isEmpty());
+        assertEquals(Arrays.asList(1), index.getBuildNumbers("renamed"));
+
+        other.delete();
+        assertTrue(index.getBuildNumbers("other").isEmpty());
+
+        DeferredBuildSaver.flush();
+        PromotionIndex reloaded = PromotionIndex.load(property);
+        assertEquals(Arrays.asList(1), reloaded.getBuildNumbers("renamed"));
+        assertTrue(reloaded.getBuildNumbers("other").isEmpty());
+    }
+}
@@ -1,13 +1,18 @@
 package hudson.plugins.promoted_builds;
 
 import hudson.Functions;
+import hudson.model.AbstractProject;
 import hudson.model.FreeStyleProject;
 import hudson.model.Items;
 import hudson.model.ParameterDefinition;
 import hudson.model.ParametersDefinitionProperty;
 import hudson.model.Result;
 import hudson.model.StringParameterDefinition;
+import hudson.model.StringParameterValue;
+import hudson.model.TaskListener;
 import hudson.model.FreeStyleBuild;
+import hudson.model.listeners.RunListener;
+import hudson.plugins.promoted_builds.conditions.ManualCondition;
 import hudson.plugins.promoted_builds.conditions.SelfPromotionCondition;
 import hudson.tasks.ArtifactArchiver;
 import hudson.tasks.BatchFile;
@@ -19,14 +24,25 @@ import hudson.plugins.promoted_builds.conditions.DownstreamPassCondition;
 import net.sf.json.JSONObject;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 import org.kohsuke.stapler.Stapler;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static hudson.plugins.promoted_builds.util.ItemListenerHelper.fireItemListeners;
+import static hudson.plugins.promoted_builds.util.PromotionQueueHelper.waitUntilNoActivity;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -74,12 +90,12 @@ class PromotionProcessTest {
         // not yet promoted while the downstream is failing
         FreeStyleBuild up1 = j.assertBuildStatusSuccess(up.scheduleBuild2(0).get());
         j.assertBuildStatus(Result.FAILURE,down.scheduleBuild2(0).get());
-        Thread.sleep(1000); // give it a time to not promote
+        waitUntilNoActivity(j); // give it a time to not promote
         assertEquals(0,proc.getBuilds().size());
 
         // a successful downstream build promotes upstream
         j.assertBuildStatusSuccess(down.scheduleBuild2(0).get());
-        Thread.sleep(1000); // give it a time to promote
+        waitUntilNoActivity(j); // give it a time to promote
         assertEquals(1,proc.getBuilds().size());
 
         {// verify that it promoted the right stuff
@@ -142,7 +158,7 @@ class PromotionProcessTest {
         // wait for the build completion
         while (down.getBuildByNumber(n)==null)
             Thread.sleep(100);
-        j.waitUntilNoActivity();
+        waitUntilNoActivity(j);
         assertFalse(down.getBuildByNumber(n).isBuilding());
     }
 
@@ -224,4 +240,271 @@ class PromotionProcessTest {
         promotionProcess.isVisible = "${Visibility}";
         assertFalse(promotionProcess.isVisible());
     }
+
+    @Test
+    void testIsVisibleFollowsComputedDefaultParameterValue(JenkinsRule j) throws Exception{
+        FreeStyleProject project = j.createFreeStyleProject("project");
+        final List<ParameterDefinition> parameters = new ArrayList<>();
+        parameters.add(new ComputedParameterDefinition("Visibility"));
+        project.addProperty(new ParametersDefinitionProperty(parameters));
+        JobPropertyImpl jobProperty = new JobPropertyImpl(project);
+        project.addProperty(jobProperty);
+        PromotionProcess promotionProcess = jobProperty.addProcess( "Promotion");
+        promotionProcess.isVisible = "${Visibility}";
+        ComputedParameterDefinition.value = "false";
+        assertFalse(promotionProcess.isVisible());
+        ComputedParameterDefinition.value = "true";
+        assertTrue(promotionProcess.isVisible(), "not memoized");
+    }
+
+    /**
+     * Default value computed on every call, as the ones of {@link hudson.model.RunParameterDefinition}.
+     */
+    public static class ComputedParameterDefinition extends StringParameterDefinition {
+        static volatile String value;
+
+        public ComputedParameterDefinition(String name) {
+            super(name, "");
+        }
+
+        @Override
+        public StringParameterValue getDefaultParameterValue() {
+            return new StringParameterValue(getName(), value);
+        }
+    }
+
+    @Test
+    void testProcessLookupByName(JenkinsRule j) throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("project");
+        JobPropertyImpl jobProperty = new JobPropertyImpl(project);
+        project.addProperty(jobProperty);
+        PromotionProcess foo = jobProperty.addProcess("Foo");
+        PromotionProcess bar = jobProperty.addProcess("bar");
+
+        assertSame(foo, jobProperty.getItem("Foo"));
+        assertSame(bar, jobProperty.getItem("bar"));
+        assertNull(jobProperty.getItem("foo"), "exact lookup");
+        assertNull(jobProperty.getItem(null));
+        assertSame(foo, project.getAction(PromotedProjectAction.class).getProcess("Foo"));
+
+        FreeStyleBuild b = j.buildAndAssertSuccess(project);
+        assertSame(bar, b.getAction(PromotedBuildAction.class).getPromotionProcess("bar"));
+
+        // a re-added process replaces the one with the same name ignoring the case
+        PromotionProcess foo2 = jobProperty.addProcess("Foo");
+        assertSame(foo2, jobProperty.getItem("Foo"));
+        assertEquals(2, jobProperty.getItems().size());
+    }
+
+    @Test
+    void testProcessListsAreSnapshots(JenkinsRule j) throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("project");
+        JobPropertyImpl jobProperty = new JobPropertyImpl(project);
+        project.addProperty(jobProperty);
+        PromotionProcess foo = jobProperty.addProcess("foo");
+
+        List<PromotionProcess> items = jobProperty.getItems();
+        List<PromotionProcess> activeItems = jobProperty.getActiveItems();
+        assertThrows(UnsupportedOperationException.class, () -> items.add(foo));
+
+        PromotionProcess bar = jobProperty.addProcess("bar");
+        assertEquals(Arrays.asList(foo), items);
+        assertEquals(Arrays.asList(foo), activeItems);
+        assertEquals(Arrays.asList(foo, bar), jobProperty.getItems());
+        assertEquals(Arrays.asList(foo, bar), jobProperty.getActiveItems());
+    }
+
+    @Test
+    void testProcessesAreReloadedInNameOrder(JenkinsRule j) throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("project");
+        JobPropertyImpl jobProperty = new JobPropertyImpl(project);
+        project.addProperty(jobProperty);
+        PromotionProcess b = jobProperty.addProcess("b");
+        PromotionProcess a = jobProperty.addProcess("a");
+        assertEquals(Arrays.asList(b, a), jobProperty.getItems());
+
+        // reloads all the processes, retaining the existing instances
+        PromotionProcess c = jobProperty.createProcessFromXml("c",
+                new ByteArrayInputStream(a.getConfigFile().asString().getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Arrays.asList(a, b, c), jobProperty.getItems());
+
+        JobPropertyImpl copy = new JobPropertyImpl(jobProperty, project);
+        List<String> names = new ArrayList<>();
+        for (PromotionProcess p : copy.getItems()) {
+            names.add(p.getName());
+        }
+        assertEquals(Arrays.asList("a", "b", "c"), names);
+    }
+
+    @Test
+    void testIsVisibleFollowsParameterChanges(JenkinsRule j) throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("project");
+        project.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("Visibility", "false")));
+        JobPropertyImpl jobProperty = new JobPropertyImpl(project);
+        project.addProperty(jobProperty);
+        PromotionProcess promotionProcess = jobProperty.addProcess("Promotion");
+        promotionProcess.isVisible = "${Visibility}";
+        assertFalse(promotionProcess.isVisible());
+        assertFalse(promotionProcess.isVisible());
+
+        project.removeProperty(ParametersDefinitionProperty.class);
+        project.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("Visibility", "true")));
+        assertTrue(promotionProcess.isVisible());
+
+        project.removeProperty(ParametersDefinitionProperty.class);
+        project.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("Visibility", "false")));
+        assertFalse(promotionProcess.isVisible());
+
+        promotionProcess.isVisible = "true";
+        assertTrue(promotionProcess.isVisible());
+    }
+
+    @Test
+    void conditionResultsAreMemoized(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        JobPropertyImpl property = new JobPropertyImpl(p);
+        p.addProperty(property);
+        PromotionProcess proc = property.addProcess("promo");
+        proc.conditions.add(new SelfPromotionCondition(false));
+        ManualCondition manual = new ManualCondition();
+        proc.conditions.add(manual);
+
+        FreeStyleBuild b = j.buildAndAssertSuccess(p);
+        List<PromotionBadge> met = proc.getMetQualifications(b);
+        assertEquals(1, met.size());
+        assertSame(met.get(0), proc.getMetQualifications(b).get(0), "finished self promotion is memoized");
+        assertEquals(Arrays.<PromotionCondition>asList(manual), proc.getUnmetConditions(b));
+        assertNull(proc.isMet(b));
+
+        manual.approve(b, proc);
+        waitUntilNoActivity(j);
+        assertTrue(proc.getUnmetConditions(b).isEmpty());
+        assertNotNull(proc.isMet(b));
+    }
+
+    @Test
+    void selfPromotionEvaluatedOnCompletionIsMemoized(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        JobPropertyImpl property = new JobPropertyImpl(p);
+        p.addProperty(property);
+        PromotionProcess proc = property.addProcess("promo");
+        SelfPromotionCondition self = new SelfPromotionCondition(false);
+        proc.conditions.add(self);
+
+        FreeStyleBuild b = j.buildAndAssertSuccess(p);
+        assertTrue(CompletionListener.logUpdated, "evaluated while the log was still updated");
+        assertNotNull(CompletionListener.badge);
+
+        PromotionConditionEvaluator.invalidate(b);
+        long hits = PromotionConditionEvaluator.getHitCount();
+        assertSame(CompletionListener.badge, PromotionConditionEvaluator.isMet(proc, self, b));
+        assertEquals(hits + 1, PromotionConditionEvaluator.getHitCount());
+    }
+
+    /**
+     * Checks the self promotion of the build, as {@link SelfPromotionCondition} does when a build completes.
+     */
+    @TestExtension("selfPromotionEvaluatedOnCompletionIsMemoized")
+    public static final class CompletionListener extends RunListener<FreeStyleBuild> {
+        static volatile boolean logUpdated;
+        static volatile PromotionBadge badge;
+
+        public CompletionListener() {
+            super(FreeStyleBuild.class);
+        }
+
+        @Override
+        public void onCompleted(FreeStyleBuild build, TaskListener listener) {
+            PromotionProcess process = build.getProject().getProperty(JobPropertyImpl.class).getItem("promo");
+            logUpdated = build.isLogUpdated();
+            badge = PromotionConditionEvaluator.isMet(process, process.conditions.get(0), build);
+        }
+    }
+
+    @Test
+    void processesWithEagerConditionsAreLoadedRightAway(JenkinsRule j) throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("project");
+        JobPropertyImpl property = new JobPropertyImpl(project);
+        project.addProperty(property);
+        PromotionProcess proc = property.addProcess("promo");
+        proc.conditions.add(new SelfPromotionCondition(false));
+
+        property.setOwner(project);
+        assertFalse(property.isLoaded(), "loaded on the first access");
+        assertEquals(1, property.getItems().size());
+        assertTrue(property.isLoaded());
+
+        proc.conditions.add(new DownstreamPassCondition("other"));
+        property.setOwner(project);
+        assertTrue(property.isLoaded(), "loaded as soon as the owner is set");
+    }
+
+    @Test
+    void renameDuringLazyLoad(JenkinsRule j) throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("project");
+        JobPropertyImpl property = new JobPropertyImpl(project);
+        project.addProperty(property);
+        PromotionProcess a = property.addProcess("a");
+        a.conditions.add(new BlockingCondition());
+        property.addProcess("b").conditions.add(new SelfPromotionCondition(false));
+        // the loaded processes are only reloaded in place, a new one is unmarshalled
+        File z = property.getRootDirFor("z");
+        assertTrue(z.mkdirs());
+        Files.copy(a.getConfigFile().getFile().toPath(), new File(z, "config.xml").toPath());
+
+        BlockingCondition.loading = new CountDownLatch(1);
+        BlockingCondition.release = new CountDownLatch(1);
+        property.setOwner(project);
+        assertFalse(property.isLoaded());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<PromotionProcess>> load = executor.submit(property::getItems);
+            assertTrue(BlockingCondition.loading.await(30, TimeUnit.SECONDS));
+
+            // rename b while a is being loaded, same as PromotionProcess.renameTo without its lookups
+            Files.move(property.getRootDirFor("b").toPath(), property.getRootDirFor("c").toPath());
+            property.setOwner(project);
+            BlockingCondition.release.countDown();
+            load.get(30, TimeUnit.SECONDS);
+        } finally {
+            BlockingCondition.release.countDown();
+            executor.shutdownNow();
+        }
+
+        assertTrue(property.isLoaded());
+        List<String> names = new ArrayList<>();
+        for (PromotionProcess p : property.getItems()) {
+            names.add(p.getName());
+        }
+        assertEquals(Arrays.asList("a", "c", "z"), names, "the stale load is not published");
+        assertNull(property.getItem("b"));
+        assertNotNull(property.getItem("c"));
+        assertEquals(Arrays.asList(a), property.getActiveItems());
+    }
+
+    /**
+     * Blocks the loading of its process until released.
+     */
+    public static final class BlockingCondition extends PromotionCondition {
+        static volatile CountDownLatch loading = new CountDownLatch(0);
+        static volatile CountDownLatch release = new CountDownLatch(0);
+
+        private Object readResolve() {
+            loading.countDown();
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return this;
+        }
+
+        @TestExtension("renameDuringLazyLoad")
+        public static class DescriptorImpl extends PromotionConditionDescriptor {
+            @Override
+            public boolean isApplicable(AbstractProject<?,?> item) {
+                return true;
+            }
+        }
+    }
 }
@@ -27,6 +27,7 @@ import com.sonyericsson.rebuild.RebuildAction;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.plugins.promoted_builds.conditions.SelfPromotionCondition;
+import static hudson.plugins.promoted_builds.util.PromotionQueueHelper.waitUntilNoActivity;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
 
@@ -51,7 +52,7 @@ class PromotionRebuildValidatorTest {
         FreeStyleBuild b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
         // internally, the promotion is still an asynchronous process. It just happens
         // right away after the build is complete.
-        Thread.sleep(1000);
+        waitUntilNoActivity(r);
 
         Promotion pb = promo1.getBuilds().iterator().next();
         assertSame(pb.getTargetBuildOrFail(), b);
@@ -12,6 +12,7 @@ import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 import java.io.File;
 import java.util.Collections;
 
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
 
 /**
@@ -50,4 +51,23 @@ class PromotionTargetActionTest {
 
         assertSame(b,p.getTargetBuildOrFail());
     }
+
+    @Test
+    void resolvedTargetIsRevalidated(JenkinsRule j) throws Exception {
+        FreeStyleProject up = j.createFreeStyleProject("up");
+        FreeStyleBuild b = j.buildAndAssertSuccess(up);
+
+        PromotionTargetAction a = new PromotionTargetAction(b);
+        assertSame(b, a.resolve());
+        assertSame(b, a.resolve());
+
+        up.renameTo("up2");
+        assertNull(a.resolve(), "the job is no longer found by its old name");
+
+        up.renameTo("up");
+        assertSame(b, a.resolve());
+
+        b.delete();
+        assertNull(a.resolve());
+    }
 }
@@ -29,6 +29,7 @@ import org.htmlunit.Page;
 import org.htmlunit.WebRequest;
 import org.htmlunit.html.HtmlPage;
 import hudson.Functions;
+import hudson.model.Cause;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.plugins.promoted_builds.conditions.SelfPromotionCondition;
@@ -42,6 +43,7 @@ import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
 import java.net.URL;
 
+import static hudson.plugins.promoted_builds.util.PromotionQueueHelper.waitUntilNoActivity;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -61,7 +63,7 @@ class PromotionTest {
         FreeStyleBuild b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
         // internally, the promotion is still an asynchronous process. It just happens
         // right away after the build is complete.
-        Thread.sleep(1000);
+        waitUntilNoActivity(r);
 
         Promotion pb = promo1.getBuilds().getLastBuild();
         assertSame(pb.getTargetBuildOrFail(), b);
@@ -95,7 +97,7 @@ class PromotionTest {
         FreeStyleBuild b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
         // internally, the promotion is still an asynchronous process. It just happens
         // right away after the build is complete.
-        Thread.sleep(1000);
+        waitUntilNoActivity(r);
 
         Promotion pb = promo1.getBuilds().getLastBuild();
         assertSame(pb.getTargetBuildOrFail(), b);
@@ -105,4 +107,25 @@ class PromotionTest {
         assertThat(pb.getUrl() + "/consoleText + is not a promotion log", page.getWebResponse().getContentAsString(), CoreMatchers.containsString("ABCDEFGH"));
     }
 
+    @Test
+    void testIsInQueue(JenkinsRule r) throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject();
+        JobPropertyImpl property = new JobPropertyImpl(p);
+        p.addProperty(property);
+        PromotionProcess promo = property.addProcess("promo");
+        promo.assignedLabel = "nowhere";
+        PromotionProcess other = property.addProcess("other");
+
+        FreeStyleBuild b1 = r.buildAndAssertSuccess(p);
+        FreeStyleBuild b2 = r.buildAndAssertSuccess(p);
+        assertFalse(promo.isInQueue(b1));
+
+        assertNotNull(promo.scheduleBuild2(b1, new Cause.UserIdCause()));
+        assertTrue(promo.isInQueue(b1));
+        assertFalse(promo.isInQueue(b2));
+        assertFalse(other.isInQueue(b1));
+
+        r.jenkins.getQueue().clear();
+        assertFalse(promo.isInQueue(b1));
+    }
 }
@@ -0,0 +1,44 @@
+package hudson.plugins.promoted_builds;
+
+import hudson.model.FreeStyleProject;
+import hudson.plugins.promoted_builds.conditions.SelfPromotionCondition;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import static hudson.plugins.promoted_builds.util.PromotionQueueHelper.waitUntilNoActivity;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@WithJenkins
+class PromotionTriggerTest {
+
+    @Test
+    void triggersDownstreamOnPromotion(JenkinsRule j) throws Exception {
+        FreeStyleProject up = j.createFreeStyleProject("up");
+        JobPropertyImpl property = new JobPropertyImpl(up);
+        up.addProperty(property);
+        PromotionProcess promo = property.addProcess("promo");
+        promo.conditions.add(new SelfPromotionCondition(false));
+
+        int registered = PromotionTrigger.getRegisteredCount();
+        FreeStyleProject down = j.createFreeStyleProject("down");
+        down.setQuietPeriod(0);
+        down.addTrigger(new PromotionTrigger("up", "promo"));
+        FreeStyleProject other = j.createFreeStyleProject("other");
+        other.addTrigger(new PromotionTrigger("up", "another"));
+        assertEquals(registered + 2, PromotionTrigger.getRegisteredCount());
+
+        down.renameTo("renamed");
+
+        j.buildAndAssertSuccess(up);
+        waitUntilNoActivity(j);
+
+        assertNotNull(down.getLastBuild(), "the renamed job is still triggered");
+        assertNull(other.getLastBuild(), "trigger of another process");
+
+        other.delete();
+        assertEquals(registered + 1, PromotionTrigger.getRegisteredCount());
+    }
+}
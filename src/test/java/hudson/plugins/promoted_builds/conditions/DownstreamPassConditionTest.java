@@ -23,15 +23,25 @@
  */
 package hudson.plugins.promoted_builds.conditions;
 
+import static hudson.plugins.promoted_builds.util.PromotionQueueHelper.waitUntilNoActivity;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
 
+import hudson.model.Cause;
+import hudson.model.CauseAction;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.model.Result;
+import hudson.model.Run;
 import hudson.plugins.promoted_builds.JobPropertyImpl;
 import hudson.plugins.promoted_builds.PromotedBuildAction;
 import hudson.plugins.promoted_builds.PromotionProcess;
@@ -64,7 +74,7 @@ class DownstreamPassConditionTest {
         j.assertBuildStatusSuccess(job2.getLastBuild());
         j.waitUntilNoActivity();
         final FreeStyleBuild run3 = j.assertBuildStatusSuccess(job3.getLastBuild());
-        j.waitUntilNoActivity();
+        waitUntilNoActivity(j);
 
         assertEquals(-1, run3.getUpstreamRelationship(job1), "fingerprint relation");
         assertFalse(process.getBuilds().isEmpty(), "no promotion process");
@@ -77,4 +87,121 @@ class DownstreamPassConditionTest {
         assertTrue(promotion.isPromotionSuccessful(), "promotion not successful");
     }
 
+    @Test
+    void registryFollowsDownstreamJobs(JenkinsRule j) throws Exception {
+        final FreeStyleProject up = j.createFreeStyleProject("up");
+        final FreeStyleProject down = j.createFreeStyleProject("down");
+
+        final JobPropertyImpl property = new JobPropertyImpl(up);
+        up.addProperty(property);
+        final PromotionProcess process = property.addProcess("promotion");
+        process.conditions.add(new DownstreamPassCondition("down"));
+
+        final DownstreamPassConditionRegistry registry = DownstreamPassConditionRegistry.get();
+        assertEquals(1, registry.getWatchers(down).size(), "watcher of the downstream job");
+        assertTrue(registry.getWatchers(up).isEmpty(), "the upstream job is not watched");
+
+        down.renameTo("renamed");
+        assertTrue(registry.getWatchers(down).isEmpty(), "the condition still refers to the old name");
+
+        final FreeStyleProject recreated = j.createFreeStyleProject("down");
+        assertEquals(1, registry.getWatchers(recreated).size(), "watcher of the recreated job");
+    }
+
+
+    @Test
+    void jobListFollowsRenamesAndDeletions(JenkinsRule j) throws Exception {
+        final FreeStyleProject up = j.createFreeStyleProject("up");
+        final FreeStyleProject down = j.createFreeStyleProject("down");
+        final FreeStyleProject other = j.createFreeStyleProject("other");
+        final DownstreamPassCondition condition = new DownstreamPassCondition("down, missing");
+
+        assertEquals(Collections.singletonList(down), condition.getJobList(up.getParent(), null));
+        assertTrue(condition.contains(up.getParent(), down, null));
+        assertFalse(condition.contains(up.getParent(), other, null));
+
+        down.renameTo("renamed");
+        assertTrue(condition.getJobList(up.getParent(), null).isEmpty(), "the condition still refers to the old name");
+        assertFalse(condition.contains(up.getParent(), down, null));
+
+        final FreeStyleProject missing = j.createFreeStyleProject("missing");
+        assertEquals(Collections.singletonList(missing), condition.getJobList(up.getParent(), null));
+
+        missing.delete();
+        assertTrue(condition.getJobList(up.getParent(), null).isEmpty());
+    }
+
+    @Test
+    void upstreamCausesAreFlattened(JenkinsRule j) throws Exception {
+        final FreeStyleProject job1 = j.createFreeStyleProject("job1");
+        final FreeStyleProject job2 = j.createFreeStyleProject("job2");
+        final FreeStyleProject job3 = j.createFreeStyleProject("job3");
+        final JobPropertyImpl property = new JobPropertyImpl(job2);
+        job2.addProperty(property);
+        final PromotionProcess process = property.addProcess("promotion");
+        process.conditions.add(new DownstreamPassCondition("job3"));
+
+        final FreeStyleBuild run1 = j.buildAndAssertSuccess(job1);
+        final FreeStyleBuild run2 = j.assertBuildStatusSuccess(job2.scheduleBuild2(0, new Cause.UpstreamCause(run1)));
+        final FreeStyleBuild run2b = j.assertBuildStatusSuccess(job2.scheduleBuild2(0, new Cause.UpstreamCause(run1)));
+        final FreeStyleBuild run3 = j.assertBuildStatusSuccess(job3.scheduleBuild2(0,
+                new CauseAction(new Cause.UpstreamCause(run2), new Cause.UpstreamCause(run2b))));
+        waitUntilNoActivity(j);
+
+        final Map<String,List<Integer>> expected = new HashMap<>();
+        expected.put("job2", Arrays.asList(run2.getNumber(), run2b.getNumber()));
+        expected.put("job1", Collections.singletonList(run1.getNumber()));
+        assertEquals(expected, DownstreamPassCondition.RunListenerImpl.flattenUpstreamCauses(run3));
+        assertTrue(DownstreamPassCondition.RunListenerImpl.flattenUpstreamCauses(run1).isEmpty());
+        assertTrue(run2.getAction(PromotedBuildAction.class).contains(process), "the nearest upstream build is promoted");
+
+        // the nearest upstream build has been deleted, the next one is promoted
+        run2.delete();
+        j.assertBuildStatusSuccess(job3.scheduleBuild2(0,
+                new CauseAction(new Cause.UpstreamCause(run2), new Cause.UpstreamCause(run2b))));
+        waitUntilNoActivity(j);
+        assertTrue(run2b.getAction(PromotedBuildAction.class).contains(process), "the next upstream build is promoted");
+    }
+
+    @Test
+    void pseudoDownstreamBuildsAreGroupedByJob(JenkinsRule j) throws Exception {
+        final FreeStyleProject down = j.createFreeStyleProject("down");
+        final FreeStyleProject other = j.createFreeStyleProject("other");
+        final FreeStyleBuild d1 = j.buildAndAssertSuccess(down);
+        final FreeStyleBuild d2 = j.buildAndAssertSuccess(down);
+
+        final DownstreamPassCondition.PseudoDownstreamBuilds pdb = new DownstreamPassCondition.PseudoDownstreamBuilds();
+        pdb.add(d2);
+        pdb.add(d1);
+        pdb.add(d2);
+        assertTrue(pdb.contains(d1));
+        assertEquals(Arrays.asList(d1, d2), pdb.listBuilds(down));
+        assertTrue(pdb.listBuilds(other).isEmpty());
+
+        final String xml = Run.XSTREAM2.toXML(pdb);
+        // still readable by the older versions
+        assertTrue(xml.contains("<hudson.model.Fingerprint_-BuildPtr><name>down</name><number>1</number>"), xml);
+        assertFalse(xml.contains("<job "), xml);
+        assertEquals(Arrays.asList(d1, d2),
+                ((DownstreamPassCondition.PseudoDownstreamBuilds) Run.XSTREAM2.fromXML(xml)).listBuilds(down));
+
+        // the grouped format
+        final String grouped = "<hudson.plugins.promoted__builds.conditions.DownstreamPassCondition_-PseudoDownstreamBuilds>"
+                + "<job name=\"down\">1,2</job>"
+                + "</hudson.plugins.promoted__builds.conditions.DownstreamPassCondition_-PseudoDownstreamBuilds>";
+        assertEquals(Arrays.asList(d1, d2),
+                ((DownstreamPassCondition.PseudoDownstreamBuilds) Run.XSTREAM2.fromXML(grouped)).listBuilds(down));
+
+        assertTrue(pdb.remove(d1));
+        assertFalse(pdb.remove(d1));
+        assertEquals(Collections.singletonList(d2), pdb.listBuilds(down));
+
+        // the list with duplicates
+        final String legacy = "<hudson.plugins.promoted__builds.conditions.DownstreamPassCondition_-PseudoDownstreamBuilds><builds>"
+                + "<hudson.model.Fingerprint_-BuildPtr><name>down</name><number>2</number></hudson.model.Fingerprint_-BuildPtr>"
+                + "<hudson.model.Fingerprint_-BuildPtr><name>down</name><number>2</number></hudson.model.Fingerprint_-BuildPtr>"
+                + "</builds></hudson.plugins.promoted__builds.conditions.DownstreamPassCondition_-PseudoDownstreamBuilds>";
+        assertEquals(Collections.singletonList(d2),
+                ((DownstreamPassCondition.PseudoDownstreamBuilds) Run.XSTREAM2.fromXML(legacy)).listBuilds(down));
+    }
 }
@@ -5,12 +5,14 @@ import hudson.model.FreeStyleProject;
 import hudson.plugins.promoted_builds.JobPropertyImpl;
 import hudson.plugins.promoted_builds.PromotionProcess;
 import org.jenkinsci.plugins.scriptsecurity.sandbox.groovy.SecureGroovyScript;
+import org.jenkinsci.plugins.scriptsecurity.scripts.ScriptApproval;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @WithJenkins
 class GroovyConditionTest {
@@ -78,4 +80,23 @@ class GroovyConditionTest {
 
         assertNotNull(promotionProcess.isMet(build), "Promotion was expected");
     }
+
+    @Test
+    void testSandboxCoversFieldInitializers(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        final JobPropertyImpl property = new JobPropertyImpl(p);
+
+        final PromotionProcess promotionProcess = property.addProcess("fieldPromotion");
+        promotionProcess.conditions.add(new GroovyCondition(new SecureGroovyScript(
+                "import groovy.transform.Field\n@Field def f = new File('promoted-builds-sandbox').exists()\ntrue", true, null), "", ""));
+
+        final FreeStyleBuild build = j.buildAndAssertSuccess(p);
+
+        assertNull(promotionProcess.isMet(build), "The field initializer must be rejected by the sandbox");
+        boolean pending = false;
+        for (ScriptApproval.PendingSignature s : ScriptApproval.get().getPendingSignatures()) {
+            pending |= s.signature.equals("new java.io.File java.lang.String");
+        }
+        assertTrue(pending, "The rejected constructor is pending approval");
+    }
 }
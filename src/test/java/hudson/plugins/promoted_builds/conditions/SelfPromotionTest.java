@@ -1,5 +1,7 @@
 package hudson.plugins.promoted_builds.conditions;
 
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
 import hudson.model.Cause;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
@@ -12,12 +14,23 @@ import hudson.model.TaskListener;
 import hudson.plugins.promoted_builds.JobPropertyImpl;
 import hudson.plugins.promoted_builds.PromotedBuildAction;
 import hudson.plugins.promoted_builds.Promotion;
+import hudson.plugins.promoted_builds.PromotionBadge;
+import hudson.plugins.promoted_builds.PromotionCondition;
+import hudson.plugins.promoted_builds.PromotionConditionDescriptor;
+import hudson.plugins.promoted_builds.PromotionConsiderationQueue;
 import hudson.plugins.promoted_builds.PromotionProcess;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static hudson.plugins.promoted_builds.util.PromotionQueueHelper.waitUntilNoActivity;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -51,7 +64,7 @@ class SelfPromotionTest {
         FreeStyleBuild b = j.assertBuildStatusSuccess(p.scheduleBuild2(0));
         // internally, the promotion is still an asynchronous process. It just happens
         // right away after the build is complete.
-        Thread.sleep(1000);
+        waitUntilNoActivity(j);
 
         // verify that both promotions happened
         Promotion pb = promo1.getBuilds().get(0);
@@ -63,6 +76,63 @@ class SelfPromotionTest {
         PromotedBuildAction badge = (PromotedBuildAction) b.getBadgeActions().get(0);
         assertTrue(badge.contains(promo1));
         assertTrue(badge.contains(promo2));
+
+        // reported to the build, although it was promoted off its executor
+        j.assertLogContains("Promoted " + b.getFullDisplayName() + " by " + promo1.getFullDisplayName(), b);
+    }
+
+    @Test
+    void testPromotesAfterLazyReload(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        JobPropertyImpl promotion = new JobPropertyImpl(p);
+        p.addProperty(promotion);
+        PromotionProcess promo1 = promotion.addProcess("promo1");
+        promo1.conditions.add(new SelfPromotionCondition(false));
+        promo1.save();
+
+        // the reloaded property only lists the process directories
+        p.updateByXml((Source) new StreamSource(p.getConfigFile().getFile()));
+        promotion = p.getProperty(JobPropertyImpl.class);
+        assertFalse(promotion.isLoaded());
+
+        // the listener loads the processes on demand
+        FreeStyleBuild b = j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        waitUntilNoActivity(j);
+        assertTrue(promotion.isLoaded());
+        promo1 = promotion.getItem("promo1");
+        assertSame(b, promo1.getBuilds().get(0).getTargetBuildOrFail());
+        assertTrue(b.getAction(PromotedBuildAction.class).contains(promo1));
+    }
+
+    @Test
+    void testConsiderationsAreCoalesced(JenkinsRule j) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        JobPropertyImpl promotion = new JobPropertyImpl(p);
+        p.addProperty(promotion);
+        PromotionProcess promo1 = promotion.addProcess("promo1");
+        promo1.conditions.add(new BlockingCondition());
+        FreeStyleBuild b = j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        waitUntilNoActivity(j);
+
+        BlockingCondition.entered = new CountDownLatch(1);
+        BlockingCondition.release = new CountDownLatch(1);
+        long considerations = PromotionConsiderationQueue.getConsiderationCount();
+        try {
+            PromotionConsiderationQueue.submit(promo1, b, b, TaskListener.NULL);
+            assertTrue(BlockingCondition.entered.await(30, TimeUnit.SECONDS));
+            // a burst of considerations of the same build, as if many downstream builds have completed at once
+            for (int i = 0; i < 20; i++) {
+                PromotionConsiderationQueue.submit(promo1, b, b, TaskListener.NULL);
+            }
+        } finally {
+            BlockingCondition.release.countDown();
+        }
+        waitUntilNoActivity(j);
+
+        assertEquals(2, PromotionConsiderationQueue.getConsiderationCount() - considerations,
+                "the burst is considered once more after the running consideration");
+        assertEquals(1, promo1.getBuilds().size());
+        assertSame(b, promo1.getBuilds().get(0).getTargetBuildOrFail());
     }
 
     @Test
@@ -91,7 +161,7 @@ class SelfPromotionTest {
         FreeStyleBuild b = j.assertBuildStatus(Result.UNSTABLE, p.scheduleBuild2(0).get());
         // internally, the promotion is still an asynchronous process. It just happens
         // right away after the build is complete.
-        Thread.sleep(1000);
+        waitUntilNoActivity(j);
 
         // verify that only one promotions happened
         assertTrue(promo1.getBuilds().isEmpty());
@@ -131,7 +201,7 @@ class SelfPromotionTest {
 
         // internally, the promotion is still an asynchronous process. It just happens
         // right away after the build is complete.
-        Thread.sleep(1000);
+        waitUntilNoActivity(j);
 
         // verify that neither promotions happened
         assertTrue(promo1.getBuilds().isEmpty(), "promo1 did not occur");
@@ -170,7 +240,7 @@ class SelfPromotionTest {
                 new ParametersAction(new StringParameterValue(paramName, paramValue))));
         // internally, the promotion is still an asynchronous process. It just happens
         // right away after the build is complete.
-        Thread.sleep(1000);
+        waitUntilNoActivity(j);
 
         // verify that the promotion's environment contains the parameter from the target build.
         Promotion pb = promo1.getBuildByNumber(1);
@@ -189,4 +259,31 @@ class SelfPromotionTest {
         return new FixedResultBuilder(Result.UNSTABLE);
     }
 
+    /**
+     * Met, once released.
+     */
+    public static final class BlockingCondition extends PromotionCondition {
+        static volatile CountDownLatch entered = new CountDownLatch(0);
+        static volatile CountDownLatch release = new CountDownLatch(0);
+
+        @Override
+        public PromotionBadge isMet(PromotionProcess promotionProcess, AbstractBuild<?,?> build) {
+            entered.countDown();
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return new SelfPromotionBadge();
+        }
+
+        @TestExtension("testConsiderationsAreCoalesced")
+        public static class DescriptorImpl extends PromotionConditionDescriptor {
+            @Override
+            public boolean isApplicable(AbstractProject<?,?> item) {
+                return true;
+            }
+        }
+    }
 }
@@ -0,0 +1,21 @@
+package hudson.plugins.promoted_builds.util;
+
+import hudson.plugins.promoted_builds.PromotionConsiderationQueue;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Utility class to wait for the promotions, which are considered off the executors of the completed builds.
+ */
+public class PromotionQueueHelper {
+
+    /**
+     * Waits until the promotions of the completed builds are considered, and the scheduled promotions are over.
+     * {@link JenkinsRule#waitUntilNoActivity()} alone does not know about {@link PromotionConsiderationQueue}.
+     */
+    public static void waitUntilNoActivity(JenkinsRule j) throws Exception {
+        do {
+            PromotionConsiderationQueue.awaitQuiescence();
+            j.waitUntilNoActivity();
+        } while (PromotionConsiderationQueue.getQueuedCount() > 0);
+    }
+}